@@ -0,0 +1,65 @@
+package scheduler.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.db.ConnectionManager;
+import scheduler.db.IdAllocator;
+import scheduler.util.Util;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocating an appointment ID from a table of 1M appointments: the block allocator reserve uses
+ * against the SELECT MAX(AppointmentID) + 1 it replaced, which asks the database every time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class IdAllocationBenchmarks {
+
+    @Param({"1000000"})
+    public int appointments;
+
+    private IdAllocator allocator;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        SeededDatabase.create(appointments);
+        allocator = new IdAllocator("Appointments", "Appointments", "AppointmentID", Util.intEnv("IdBlockSize", 100));
+    }
+
+    @Benchmark
+    public long blockAllocator() throws SQLException {
+        return allocator.nextId();
+    }
+
+    @Benchmark
+    public long maxPlusOne() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createReadConnection();
+        try {
+            PreparedStatement statement = cm.prepareStatement("SELECT MAX(AppointmentID) FROM Appointments");
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getLong(1) + 1 : 1;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+}
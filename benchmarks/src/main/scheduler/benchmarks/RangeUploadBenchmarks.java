@@ -0,0 +1,72 @@
+package scheduler.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.availability.Slots;
+import scheduler.model.Caregiver;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offering a whole year of availability: one upload_availability_range, which inserts the 365
+ * days as one batch per shard, against 365 separate upload_availability calls of one transaction
+ * each. Every invocation starts from a caregiver with no availability yet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class RangeUploadBenchmarks {
+    private static final LocalDate START = LocalDate.of(2031, 1, 1);
+    private static final Set<DayOfWeek> EVERY_DAY = EnumSet.allOf(DayOfWeek.class);
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        SeededDatabase.create(10_000);
+    }
+
+    // A caregiver created before the call, who has not offered any dates yet
+    @State(Scope.Thread)
+    public static class NewCaregiver {
+        private int next = 0;
+        Caregiver caregiver;
+
+        @Setup(Level.Invocation)
+        public void create() throws Exception {
+            byte[] salt = Util.generateSalt();
+            caregiver = new Caregiver.CaregiverBuilder("range" + Thread.currentThread().getId() + "_" + next++,
+                    salt, Util.generateHash(SeededDatabase.PASSWORD, salt)).build();
+            caregiver.saveToDB();
+        }
+    }
+
+    @Benchmark
+    public int rangeUpload(NewCaregiver fresh) throws Exception {
+        return fresh.caregiver.uploadAvailabilityRange(Date.valueOf(START), Date.valueOf(START.plusDays(364)), EVERY_DAY);
+    }
+
+    @Benchmark
+    public int singleUploads(NewCaregiver fresh) throws Exception {
+        for (int i = 0; i < 365; i++) {
+            fresh.caregiver.uploadAvailability(Date.valueOf(START.plusDays(i)), Slots.ALL);
+        }
+        return 365;
+    }
+}
@@ -0,0 +1,118 @@
+package scheduler.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.model.Appointment;
+import scheduler.model.Patient;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The commands patients and caregivers run most, through the same code the commands use, against
+ * a database seeded with 10K or 1M past appointments (see {@link SeededDatabase}). Each benchmark
+ * reports throughput and a latency distribution with its p99; add {@code -prof gc} for the
+ * allocation rate.
+ *
+ * reserve and cancel undo each other outside the measured call, so every invocation books on a
+ * database of the same size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class SchedulerBenchmarks {
+
+    @Param({"10000", "1000000"})
+    public int appointments;
+
+    private Session patient;
+    private Session caregiver;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        SeededDatabase.create(appointments);
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        patient = new Session(discard);
+        Scheduler.execute(patient, "login_patient " + SeededDatabase.patient(0) + " " + SeededDatabase.PASSWORD);
+        caregiver = new Session(discard);
+        Scheduler.execute(caregiver, "login_caregiver " + SeededDatabase.caregiver(0) + " " + SeededDatabase.PASSWORD);
+    }
+
+    // A reservation made by the benchmark, cancelled again after the call
+    @State(Scope.Thread)
+    public static class ToCancel {
+        private int next = 0;
+        Appointment appointment;
+
+        Date nextDate() {
+            return SeededDatabase.futureDate(next++);
+        }
+
+        @TearDown(Level.Invocation)
+        public void cancel() throws Exception {
+            if (appointment != null) {
+                appointment.cancel();
+                appointment = null;
+            }
+        }
+    }
+
+    // A reservation made before the call, for the benchmark to cancel
+    @State(Scope.Thread)
+    public static class Reserved {
+        private int next = 0;
+        Appointment appointment;
+
+        @Setup(Level.Invocation)
+        public void reserve() throws Exception {
+            appointment = Appointment.reserve(SeededDatabase.patient(next), SeededDatabase.futureDate(next),
+                    SeededDatabase.VACCINE);
+            next++;
+        }
+    }
+
+    @Benchmark
+    public Patient login() throws Exception {
+        return new Patient.PatientGetter(SeededDatabase.patient(1), SeededDatabase.PASSWORD).get();
+    }
+
+    @Benchmark
+    public boolean searchCaregiverSchedule() {
+        return Scheduler.execute(patient, "search_caregiver_schedule " + SeededDatabase.FUTURE);
+    }
+
+    @Benchmark
+    public boolean showAppointments() {
+        return Scheduler.execute(caregiver, "show_appointments");
+    }
+
+    @Benchmark
+    public Appointment reserve(ToCancel booking) throws Exception {
+        booking.appointment = Appointment.reserve(SeededDatabase.patient(booking.next), booking.nextDate(),
+                SeededDatabase.VACCINE);
+        return booking.appointment;
+    }
+
+    @Benchmark
+    public boolean cancel(Reserved reserved) throws Exception {
+        return reserved.appointment.cancel();
+    }
+}
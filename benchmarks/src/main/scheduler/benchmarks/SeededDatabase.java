@@ -0,0 +1,199 @@
+package scheduler.benchmarks;
+
+import scheduler.availability.AssignmentStrategy;
+import scheduler.availability.AvailabilityIndex;
+import scheduler.availability.Slots;
+import scheduler.db.SchemaMigrator;
+import scheduler.db.ShardRouter;
+import scheduler.util.Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates the database a benchmark runs against at DBPath (one file per shard) and fills it
+ * with CAREGIVERS caregivers, PATIENTS patients, a vaccine with doses to spare and the given
+ * number of past appointments, each caregiver booked solid one day after another from
+ * {@link #PAST}. Every caregiver also offers every slot of the FUTURE_DAYS days from
+ * {@link #FUTURE}, for reservations. The rows are written with plain batched inserts straight to
+ * the files, after the schema has been migrated and before anything is loaded from them.
+ */
+public final class SeededDatabase {
+    public static final int CAREGIVERS = 100;
+    public static final int PATIENTS = 1000;
+    public static final int FUTURE_DAYS = 365;
+    public static final LocalDate PAST = LocalDate.of(2020, 1, 1);
+    public static final LocalDate FUTURE = LocalDate.of(2030, 1, 1);
+    public static final String PASSWORD = "Secret#123";
+    public static final String VACCINE = "Pfizer";
+
+    private static final int BATCH = 10_000;
+
+    private SeededDatabase() {
+    }
+
+    public static String caregiver(int i) {
+        return String.format("caregiver%03d", i % CAREGIVERS);
+    }
+
+    public static String patient(int i) {
+        return String.format("patient%04d", i % PATIENTS);
+    }
+
+    // The i-th day (wrapping around) open for reservations
+    public static Date futureDate(int i) {
+        return Date.valueOf(FUTURE.plusDays(Math.floorMod(i, FUTURE_DAYS)));
+    }
+
+    public static void create(int appointments) throws IOException, SQLException {
+        String path = System.getenv("DBPath");
+        if (path == null) {
+            throw new IllegalStateException("Set DBPath to a scratch database file, such as /tmp/bench.db");
+        }
+        String schema;
+        try (InputStream in = SeededDatabase.class.getResourceAsStream("/sqlite/create.sql")) {
+            schema = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        Connection[] shards = new Connection[ShardRouter.count()];
+        try {
+            for (int shard = 0; shard < shards.length; shard++) {
+                Path file = Paths.get(shard == 0 ? path : path + "." + shard);
+                for (String suffix : new String[]{"", "-wal", "-shm", "-journal"}) {
+                    Files.deleteIfExists(Paths.get(file + suffix));
+                }
+                shards[shard] = DriverManager.getConnection("jdbc:sqlite:" + file);
+                try (Statement statement = shards[shard].createStatement()) {
+                    for (String sql : schema.split(";")) {
+                        if (!sql.replaceAll("--[^\n]*", "").isBlank()) {
+                            statement.executeUpdate(sql);
+                        }
+                    }
+                }
+            }
+            SchemaMigrator.migrate();
+            for (Connection con : shards) {
+                con.setAutoCommit(false);
+            }
+            insertAccounts(shards[0]);
+            insertAppointments(shards, appointments);
+            for (Connection con : shards) {
+                con.commit();
+            }
+        } finally {
+            for (Connection con : shards) {
+                if (con != null) {
+                    con.close();
+                }
+            }
+        }
+        AvailabilityIndex.getInstance().load();
+        AssignmentStrategy.getInstance().load();
+    }
+
+    private static void insertAccounts(Connection con) throws SQLException {
+        insertUsers(con, "INSERT INTO Caregivers(Username, Salt, Hash) VALUES (?, ?, ?)", CAREGIVERS, true);
+        insertUsers(con, "INSERT INTO Patients(Username, Salt, Hash) VALUES (?, ?, ?)", PATIENTS, false);
+        try (PreparedStatement statement = con.prepareStatement("INSERT INTO Vaccines(Name, Doses) VALUES (?, ?)")) {
+            statement.setString(1, VACCINE);
+            statement.setInt(2, 1_000_000_000);
+            statement.executeUpdate();
+        }
+    }
+
+    private static void insertUsers(Connection con, String sql, int count, boolean caregivers) throws SQLException {
+        try (PreparedStatement statement = con.prepareStatement(sql)) {
+            for (int i = 0; i < count; i++) {
+                byte[] salt = Util.generateSalt();
+                statement.setString(1, caregivers ? caregiver(i) : patient(i));
+                statement.setBytes(2, salt);
+                statement.setBytes(3, Util.generateHash(PASSWORD, salt));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private static void insertAppointments(Connection[] shards, int appointments) throws SQLException {
+        PreparedStatement[] inserts = new PreparedStatement[shards.length];
+        PreparedStatement[] availabilities = new PreparedStatement[shards.length];
+        try {
+            for (int shard = 0; shard < shards.length; shard++) {
+                inserts[shard] = shards[shard].prepareStatement("INSERT INTO Appointments"
+                        + "(AppointmentID, PatientName, CaregiverName, VaccineName, Date, Time) VALUES (?, ?, ?, ?, ?, ?)");
+                availabilities[shard] = shards[shard].prepareStatement(
+                        "INSERT INTO Availabilities(Time, Username, Slots, Booked) VALUES (?, ?, ?, ?)");
+            }
+            // appointment i has caregiver i mod CAREGIVERS, so each day fills every caregiver's
+            // slots in turn before the next day starts
+            Map<LocalDate, long[]> booked = new HashMap<>();
+            int[] pending = new int[shards.length];
+            for (int i = 0; i < appointments; i++) {
+                int slot = (i / CAREGIVERS) % Slots.PER_DAY;
+                LocalDate day = PAST.plusDays(i / (CAREGIVERS * Slots.PER_DAY));
+                Date date = Date.valueOf(day);
+                int shard = ShardRouter.shardOf(date);
+                PreparedStatement insert = inserts[shard];
+                insert.setInt(1, i + 1);
+                insert.setString(2, patient(i));
+                insert.setString(3, caregiver(i));
+                insert.setString(4, VACCINE);
+                insert.setDate(5, date);
+                insert.setString(6, Slots.time(slot));
+                insert.addBatch();
+                booked.computeIfAbsent(day, d -> new long[CAREGIVERS])[i % CAREGIVERS] |= Slots.bit(slot);
+                if (++pending[shard] == BATCH) {
+                    insert.executeBatch();
+                    pending[shard] = 0;
+                }
+            }
+            for (PreparedStatement insert : inserts) {
+                insert.executeBatch();
+            }
+
+            for (Map.Entry<LocalDate, long[]> day : booked.entrySet()) {
+                addAvailability(availabilities, Date.valueOf(day.getKey()), day.getValue());
+            }
+            for (int d = 0; d < FUTURE_DAYS; d++) {
+                addAvailability(availabilities, futureDate(d), new long[CAREGIVERS]);
+            }
+            for (PreparedStatement statement : availabilities) {
+                statement.executeBatch();
+            }
+        } finally {
+            for (int shard = 0; shard < shards.length; shard++) {
+                if (inserts[shard] != null) {
+                    inserts[shard].close();
+                }
+                if (availabilities[shard] != null) {
+                    availabilities[shard].close();
+                }
+            }
+        }
+    }
+
+    // Every caregiver offers the whole day, with the given slots already booked
+    private static void addAvailability(PreparedStatement[] availabilities, Date date, long[] booked)
+            throws SQLException {
+        PreparedStatement statement = availabilities[ShardRouter.shardOf(date)];
+        for (int c = 0; c < CAREGIVERS; c++) {
+            statement.setDate(1, date);
+            statement.setString(2, caregiver(c));
+            statement.setLong(3, Slots.ALL);
+            statement.setLong(4, booked[c]);
+            statement.addBatch();
+        }
+    }
+}
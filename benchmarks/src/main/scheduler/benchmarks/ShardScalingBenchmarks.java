@@ -0,0 +1,68 @@
+package scheduler.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import scheduler.model.Appointment;
+
+import java.sql.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Booking throughput of four threads, each reserving (and cancelling again) in a month of its
+ * own. Run it once per Shards setting, for example 1, 2 and 4: consecutive months go to
+ * different shards, so with as many shards as threads no booking waits for another's commit
+ * and the total should grow with the shard count, as far as there are cores for the threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ShardScalingBenchmarks {
+
+    @Param({"10000"})
+    public int appointments;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        SeededDatabase.create(appointments);
+    }
+
+    // The month a booking thread reserves in, and the day of it next
+    @State(Scope.Thread)
+    public static class Month {
+        private int month;
+        private int next = 0;
+
+        @Setup(Level.Trial)
+        public void pick(ThreadParams thread) {
+            month = thread.getThreadIndex();
+        }
+
+        Date nextDate() {
+            return Date.valueOf(SeededDatabase.FUTURE.plusMonths(month).plusDays(next++ % 28));
+        }
+    }
+
+    @Benchmark
+    public boolean reserveAndCancel(Month month) throws Exception {
+        // cancelled again, so the database keeps its size
+        Appointment appointment = Appointment.reserve(SeededDatabase.patient(month.next), month.nextDate(),
+                SeededDatabase.VACCINE);
+        return appointment.cancel();
+    }
+}
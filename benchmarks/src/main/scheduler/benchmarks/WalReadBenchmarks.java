@@ -0,0 +1,82 @@
+package scheduler.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scheduler.model.Appointment;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appointment lookups by ID on their own and while other threads keep booking: the {@code alone}
+ * group only reads, the {@code booking} group reads with as many threads next to two that reserve
+ * and cancel again in a loop. Compare the read throughput of the two groups once with
+ * StorageProfile=wal and once without. Under the WAL profile the readers' pool does not wait for
+ * the writer, so given a core for each thread reads go as fast in both groups; with the rollback
+ * journal every commit locks the readers out. On fewer cores the booking threads still take
+ * their share of the CPU.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class WalReadBenchmarks {
+
+    @Param({"1000000"})
+    public int appointments;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        SeededDatabase.create(appointments);
+    }
+
+    // The patient and day a booking thread reserves for next
+    @State(Scope.Thread)
+    public static class Booker {
+        private int next = 0;
+    }
+
+    private Appointment read() throws SQLException {
+        return new Appointment.AppointmentGetter(ThreadLocalRandom.current().nextInt(appointments) + 1).get();
+    }
+
+    @Benchmark
+    @Group("alone")
+    @GroupThreads(4)
+    public Appointment readAlone() throws SQLException {
+        return read();
+    }
+
+    @Benchmark
+    @Group("booking")
+    @GroupThreads(4)
+    public Appointment readWhileBooking() throws SQLException {
+        return read();
+    }
+
+    @Benchmark
+    @Group("booking")
+    @GroupThreads(2)
+    public boolean book(Booker booker) throws Exception {
+        int i = booker.next++;
+        // reserved and cancelled again, so the database keeps its size
+        Appointment appointment = Appointment.reserve(SeededDatabase.patient(i), SeededDatabase.futureDate(i),
+                SeededDatabase.VACCINE);
+        return appointment.cancel();
+    }
+}
@@ -1,3 +1,21 @@
+-- The schema for PostgreSQL and Aurora PostgreSQL (DBDialect=postgresql), at the latest
+-- version of scheduler.db.SchemaMigrator. SchemaMigrator's migrations are written for SQLite, so
+-- a change to the schema is made here as well and SchemaVersion is bumped to match.
+
+CREATE TABLE SchemaVersion (
+    Version int NOT NULL
+);
+
+INSERT INTO SchemaVersion (Version) VALUES (5);
+
+-- settings the stored data depends on; the scheduler records SlotsPerDay, SlotMinutes and
+-- Shards here on first start and refuses to start with different ones
+CREATE TABLE Settings (
+    Name varchar(255),
+    Value text,
+    PRIMARY KEY (Name)
+);
+
 CREATE TABLE Caregivers (
     Username varchar(255),
     Salt BYTEA,
@@ -5,9 +23,14 @@ CREATE TABLE Caregivers (
     PRIMARY KEY (Username)
 );
 
+-- Slots and Booked are bitmasks of the slots offered and booked that day (see
+-- scheduler.availability.Slots). Slots has no default: a whole day depends on SlotsPerDay, so
+-- the scheduler always writes it.
 CREATE TABLE Availabilities (
     Time date,
     Username varchar(255) REFERENCES Caregivers,
+    Slots bigint NOT NULL,
+    Booked bigint NOT NULL DEFAULT 0,
     PRIMARY KEY (Time, Username)
 );
 
@@ -15,4 +38,55 @@ CREATE TABLE Vaccines (
     Name varchar(255),
     Doses int,
     PRIMARY KEY (Name)
-);
\ No newline at end of file
+);
+
+CREATE TABLE Patients (
+    Username varchar(255),
+    Salt BYTEA,
+    Hash BYTEA,
+    PRIMARY KEY (Username)
+);
+
+CREATE TABLE Appointments (
+    AppointmentID int PRIMARY KEY,
+    PatientName varchar(255) REFERENCES Patients(Username),
+    CaregiverName varchar(255) REFERENCES Caregivers(Username),
+    VaccineName varchar(255) REFERENCES Vaccines(Name),
+    Date date,
+    Time text
+);
+
+CREATE INDEX AppointmentsByPatient
+    ON Appointments(PatientName, AppointmentID, VaccineName, Date, CaregiverName);
+
+CREATE INDEX AppointmentsByCaregiver
+    ON Appointments(CaregiverName, AppointmentID, VaccineName, Date, PatientName);
+
+CREATE TABLE Sequences (
+    Name varchar(255),
+    NextValue bigint,
+    PRIMARY KEY (Name)
+);
+
+CREATE TABLE Holds (
+    HoldID int PRIMARY KEY,
+    PatientName varchar(255) REFERENCES Patients(Username),
+    CaregiverName varchar(255) REFERENCES Caregivers(Username),
+    VaccineName varchar(255) REFERENCES Vaccines(Name),
+    Date date,
+    Time text,
+    Expires bigint
+);
+
+CREATE TABLE Waitlist (
+    EntryID int PRIMARY KEY,
+    PatientName varchar(255) REFERENCES Patients(Username),
+    VaccineName varchar(255) REFERENCES Vaccines(Name),
+    Date date,
+    Status text,
+    AppointmentID int
+);
+
+CREATE INDEX WaitlistByDate ON Waitlist(Status, Date, EntryID);
+CREATE INDEX WaitlistByVaccine ON Waitlist(Status, VaccineName, EntryID);
+CREATE INDEX WaitlistByPatient ON Waitlist(PatientName, EntryID);
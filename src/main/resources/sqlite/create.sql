@@ -1,3 +1,6 @@
+-- Schema version 0. Later changes (indexes, table layouts) are applied as migrations by
+-- scheduler.db.SchemaMigrator when the program starts.
+
 CREATE TABLE Caregivers (
     Username varchar(255),
     Salt BINARY(16),
@@ -31,4 +34,10 @@ CaregiverName varchar(225) REFERENCES Caregivers(Username),
 VaccineName varchar(225) REFERENCES Vaccines(Name),
 Date date,
 Time TEXT
-);
\ No newline at end of file
+);
+
+CREATE TABLE Sequences (
+Name varchar(255),
+NextValue INTEGER,
+PRIMARY KEY (Name)
+);
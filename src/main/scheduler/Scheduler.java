@@ -1,48 +1,151 @@
 package scheduler;
 
+import scheduler.availability.AssignmentStrategy;
+import scheduler.availability.AvailabilityIndex;
+import scheduler.availability.Slots;
 import scheduler.db.ConnectionManager;
+import scheduler.db.SchemaMigrator;
+import scheduler.db.ShardRouter;
+import scheduler.importer.BulkImporter;
+import scheduler.metrics.Metrics;
+import scheduler.metrics.MetricsServer;
+import scheduler.model.Appointment;
 import scheduler.model.Caregiver;
+import scheduler.model.Hold;
+import scheduler.model.HoldExpiry;
 import scheduler.model.Patient;
+import scheduler.model.Waitlist;
 import scheduler.model.Vaccine;
+import scheduler.script.ScriptRunner;
+import scheduler.search.ScheduleSearch;
+import scheduler.server.SchedulerServer;
 import scheduler.util.Util;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.sql.Connection;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.file.Paths;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Date;
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionException;
 
 public class Scheduler {
 
-    // objects to keep track of the currently logged-in user
-    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
-    //       since only one user can be logged-in at a time
-    private static Caregiver currentCaregiver = null;
-    private static Patient currentPatient = null;
+    // how many appointments show_appointments lists at a time unless told otherwise
+    private static final int appointmentPageSize = Math.max(1, Util.intEnv("AppointmentPageSize", 100));
+    // the most a show_appointments limit may ask for; larger limits are cut down to it
+    private static final int maxAppointmentPageSize = Math.max(appointmentPageSize,
+            Util.intEnv("MaxAppointmentPageSize", 1000));
+    // how many names existingPatients looks up per query; a shorter last chunk repeats a name to
+    // fill the placeholders, so that every lookup is the same statement
+    private static final int patientLookupChunk = 64;
+    private static final String selectPatientChunk = "SELECT Username FROM Patients WHERE Username IN ("
+            + String.join(", ", Collections.nCopies(patientLookupChunk, "?")) + ")";
 
     public static void main(String[] args) {
-        // printing greetings text
-        System.out.println();
-        System.out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
-        System.out.println("*** Please enter one of the following commands ***");
-        System.out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
-        System.out.println("> create_caregiver <username> <password>");
-        System.out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
-        System.out.println("> login_caregiver <username> <password>");
-        System.out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
-        System.out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
-        System.out.println("> upload_availability <date>");
-        System.out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
-        System.out.println("> add_doses <vaccine> <number>");
-        System.out.println("> show_appointments");  // TODO: implement show_appointments (Part 2)
-        System.out.println("> logout");  // TODO: implement logout (Part 2)
-        System.out.println("> quit");
-        System.out.println();
+        // bring older databases up to the current schema before serving any command
+        try {
+            SchemaMigrator.migrate();
+        } catch (SQLException e) {
+            System.out.println("Could not upgrade the database schema");
+            e.printStackTrace();
+            return;
+        }
+
+        try {
+            AvailabilityIndex.getInstance().load();
+            AssignmentStrategy.getInstance().load();
+            HoldExpiry.getInstance().load();
+            Waitlist.getInstance().load();
+        } catch (SQLException e) {
+            System.out.println("Could not load caregiver availabilities");
+            e.printStackTrace();
+            return;
+        }
+
+        // MetricsPort serves the same report as the stats command over HTTP at /metrics, on
+        // loopback unless MetricsBindAddress names another interface
+        int metricsPort = Util.intEnv("MetricsPort", 0);
+        if (metricsPort > 0) {
+            String bindAddress = System.getenv("MetricsBindAddress");
+            try {
+                if (bindAddress == null || bindAddress.isBlank()) {
+                    MetricsServer.start(metricsPort);
+                } else {
+                    MetricsServer.start(InetAddress.getByName(bindAddress.trim()), metricsPort);
+                }
+            } catch (IOException e) {
+                System.out.println("Could not start the metrics endpoint: " + e.getMessage());
+            }
+        }
+
+        // --check-plans verifies that no hot query has regressed to a full scan, for use in CI
+        if (args.length > 0 && args[0].equals("--check-plans")) {
+            checkQueryPlans();
+            return;
+        }
+
+        // --import <file> [batch_size] loads patients, caregivers, vaccines and availabilities in bulk
+        if (args.length > 1 && args[0].equals("--import")) {
+            try {
+                int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+                new BulkImporter(batchSize, System.out).importFile(Paths.get(args[1]));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Please enter a valid batch size!");
+            } catch (IOException e) {
+                System.out.println("Could not read " + args[1] + ": " + e.getMessage());
+            }
+            return;
+        }
+
+        // --script <file> [group_size] replays a file of commands with buffered output
+        if (args.length > 1 && args[0].equals("--script")) {
+            try {
+                int groupSize = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+                new ScriptRunner(groupSize).run(Paths.get(args[1]));
+            } catch (IllegalArgumentException e) {
+                System.out.println("Please enter a valid group size!");
+            } catch (IOException | SQLException e) {
+                System.out.println("Script stopped: " + e.getMessage());
+            }
+            return;
+        }
+
+        // --server <port> serves many users at once over TCP instead of a single user on stdin
+        if (args.length > 1 && args[0].equals("--server")) {
+            try {
+                new SchedulerServer(Integer.parseInt(args[1])).run();
+            } catch (NumberFormatException e) {
+                System.out.println("Please enter a valid port!");
+            } catch (IOException e) {
+                System.out.println("Server stopped: " + e.getMessage());
+            }
+            return;
+        }
+
+        printMenu(System.out);
 
         // read input from user
+        Session session = new Session(System.out);
         BufferedReader r = new BufferedReader(new InputStreamReader(System.in));
         while (true) {
             System.out.print("> ");
@@ -52,111 +155,176 @@ public class Scheduler {
             } catch (IOException e) {
                 System.out.println("Please try again!");
             }
-            // split the user input by spaces
-            String[] tokens = response.split(" ");
-            // check if input exists
-            if (tokens.length == 0) {
-                System.out.println("Please try again!");
-                continue;
-            }
-            // determine which operation to perform
-            String operation = tokens[0];
-            if (operation.equals("create_patient")) {
-                createPatient(tokens);
-            } else if (operation.equals("create_caregiver")) {
-                createCaregiver(tokens);
-            } else if (operation.equals("login_patient")) {
-                loginPatient(tokens);
-            } else if (operation.equals("login_caregiver")) {
-                loginCaregiver(tokens);
-            } else if (operation.equals("search_caregiver_schedule")) {
-                searchCaregiverSchedule(tokens);
-            } else if (operation.equals("reserve")) {
-                reserve(tokens);
-            } else if (operation.equals("upload_availability")) {
-                uploadAvailability(tokens);
-            } else if (operation.equals("cancel")) {
-                cancel(tokens);
-            } else if (operation.equals("add_doses")) {
-                addDoses(tokens);
-            } else if (operation.equals("show_appointments")) {
-                showAppointments(tokens);
-            } else if (operation.equals("logout")) {
-                logout(tokens);
-            } else if (operation.equals("quit")) {
-                System.out.println("Bye!");
+            // end of input behaves like quit
+            if (response == null || !execute(session, response)) {
                 return;
-            } else {
-                System.out.println("Invalid operation name!");
             }
         }
     }
 
-    private static void createPatient(String[] tokens) {
+    public static void printMenu(PrintStream out) {
+        // printing greetings text
+        out.println();
+        out.println("Welcome to the COVID-19 Vaccine Reservation Scheduling Application!");
+        out.println("*** Please enter one of the following commands ***");
+        out.println("> create_patient <username> <password>");  //TODO: implement create_patient (Part 1)
+        out.println("> create_caregiver <username> <password>");
+        out.println("> login_patient <username> <password>");  // TODO: implement login_patient (Part 1)
+        out.println("> login_caregiver <username> <password>");
+        out.println("> search_caregiver_schedule <date>");  // TODO: implement search_caregiver_schedule (Part 2)
+        out.println("> reserve <date> <vaccine>");  // TODO: implement reserve (Part 2)
+        out.println("> reserve_batch <patient>,<date>,<vaccine> [<patient>,<date>,<vaccine> ...]");
+        out.println("> hold <date> <vaccine>");
+        out.println("> confirm <hold_id>");
+        out.println("> waitlist <date> <vaccine>");
+        out.println("> waitlist_status");
+        out.println("> upload_availability <date> [<from> <to>]");
+        out.println("> upload_availability_range <start_date> <end_date> [weekdays]");
+        out.println("> cancel <appointment_id>");  // TODO: implement cancel (extra credit)
+        out.println("> add_doses <vaccine> <number>");
+        out.println("> get_vaccine_information [vaccine]");
+        out.println("> show_appointments [after_id] [limit] [from_date to_date]");  // TODO: implement show_appointments (Part 2)
+        out.println("> logout");  // TODO: implement logout (Part 2)
+        out.println("> quit");
+        out.println();
+    }
+
+    // Runs one command line for the session and returns false once the session should end
+    public static boolean execute(Session session, String response) {
+        // split the user input by spaces
+        String[] tokens = response.split(" ");
+        // check if input exists
+        if (tokens.length == 0) {
+            session.out.println("Please try again!");
+            return true;
+        }
+        // determine which operation to perform
+        String operation = tokens[0];
+        if (operation.equals("quit")) {
+            session.out.println("Bye!");
+            return false;
+        }
+        long start = System.nanoTime();
+        try {
+            if (!dispatch(session, operation, tokens)) {
+                session.out.println("Invalid operation name!");
+                return true;
+            }
+            Metrics.timer("command " + operation).record(System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            Metrics.timer("command " + operation).recordError(System.nanoTime() - start);
+            session.out.println("Please try again!");
+        }
+        return true;
+    }
+
+    // Runs the operation's handler; returns false if there is no such operation
+    private static boolean dispatch(Session session, String operation, String[] tokens) {
+        if (operation.equals("create_patient")) {
+            createPatient(session, tokens);
+        } else if (operation.equals("create_caregiver")) {
+            createCaregiver(session, tokens);
+        } else if (operation.equals("login_patient")) {
+            loginPatient(session, tokens);
+        } else if (operation.equals("login_caregiver")) {
+            loginCaregiver(session, tokens);
+        } else if (operation.equals("search_caregiver_schedule")) {
+            searchCaregiverSchedule(session, tokens);
+        } else if (operation.equals("reserve")) {
+            reserve(session, tokens);
+        } else if (operation.equals("reserve_batch")) {
+            reserveBatch(session, tokens);
+        } else if (operation.equals("hold")) {
+            hold(session, tokens);
+        } else if (operation.equals("confirm")) {
+            confirm(session, tokens);
+        } else if (operation.equals("waitlist")) {
+            waitlist(session, tokens);
+        } else if (operation.equals("waitlist_status")) {
+            waitlistStatus(session, tokens);
+        } else if (operation.equals("upload_availability")) {
+            uploadAvailability(session, tokens);
+        } else if (operation.equals("upload_availability_range")) {
+            uploadAvailabilityRange(session, tokens);
+        } else if (operation.equals("cancel")) {
+            cancel(session, tokens);
+        } else if (operation.equals("add_doses")) {
+            addDoses(session, tokens);
+        } else if (operation.equals("get_vaccine_information")) {
+            getVaccineInformation(session, tokens);
+        } else if (operation.equals("show_appointments")) {
+            showAppointments(session, tokens);
+        } else if (operation.equals("logout")) {
+            logout(session, tokens);
+        } else if (operation.equals("verify_availability")) {
+            verifyAvailability(session, tokens);
+        } else if (operation.equals("stats")) {
+            stats(session, tokens);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static void checkQueryPlans() {
+        try {
+            List<String> problems = SchemaMigrator.checkQueryPlans();
+            if (problems.isEmpty()) {
+                System.out.println("All query plans use an index");
+                return;
+            }
+            for (String problem : problems) {
+                System.out.println("Query plan regression: " + problem);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        System.exit(1);
+    }
+
+    private static void createPatient(Session session, String[] tokens) {
         if (tokens.length != 3) {
-            System.out.println("Create patient failed");
+            session.out.println("Create patient failed");
             return;
         }
 
         String username = tokens[1];
         String password = tokens[2];
 
-        if (!isStrongPassword(password)) {
-            System.out.println("Create patient failed, please use a strong password (8+ char, at least one upper and one lower, at least one letter and one number, and at least one special character, from \"!\", \"@\", \"#\", \"?\")");
+        if (!Util.isStrongPassword(password)) {
+            session.out.println("Create patient failed, please use a strong password (8+ char, at least one upper and one lower, at least one letter and one number, and at least one special character, from \"!\", \"@\", \"#\", \"?\")");
             return;
         }
 
-        if(usernameExistsPatient(username)) {
-            System.out.println("Username taken, try again");
+        if(usernameExistsPatient(session, username)) {
+            session.out.println("Username taken, try again");
             return;
         }
 
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
 
         try {
+            byte[] hash = Util.generateHashAsync(password, salt).join();
             Patient patient = new Patient.PatientBuilder(username, salt, hash).build();
             patient.saveToDB();
-            System.out.println("Created user " + username);
-        } catch (SQLException e) {
-            System.out.println("Create patient failed");
+            session.out.println("Created user " + username);
+        } catch (SQLException | CompletionException e) {
+            session.out.println("Create patient failed");
         }
     }
 
-    private static boolean isStrongPassword(String password) {
-        if (password.length() < 8) return false;
-
-        boolean hasUpper = false;
-        boolean hasLower = false;
-        boolean hasDigit = false;
-        boolean hasSpecial = false;
-
-        for (char c : password.toCharArray()) {
-            if (Character.isUpperCase(c)) {
-                hasUpper = true;
-            } else if (Character.isLowerCase(c)) {
-                hasLower = true;
-            } else if (Character.isDigit(c)) {
-                hasDigit = true;
-            } else if ("!@#?".indexOf(c) >= 0) {
-                hasSpecial = true;
-            }
-        }
-
-        return hasUpper && hasLower && hasDigit && hasSpecial;
-    }
-
-    private static boolean usernameExistsPatient(String username) {
+    private static boolean usernameExistsPatient(Session session, String username) {
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        cm.createReadConnection();
         String selectUsername = "SELECT * FROM Patients WHERE Username = ?";
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
+            PreparedStatement statement = cm.prepareStatement(selectUsername);
             statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            return resultSet.next();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();
+            }
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            session.out.println("Error occurred when checking username");
             return true;
         } finally {
             cm.closeConnection();
@@ -164,65 +332,66 @@ public class Scheduler {
     }
 
 
-    private static void createCaregiver(String[] tokens) {
+    private static void createCaregiver(Session session, String[] tokens) {
         // create_caregiver <username> <password>
         // check 1: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Create patient failed");
+            session.out.println("Create patient failed");
             return;
         }
         String username = tokens[1];
         String password = tokens[2];
 
-        if (!isStrongPassword(password)) {
-            System.out.println(
+        if (!Util.isStrongPassword(password)) {
+            session.out.println(
                     "Create caregiver failed, please use a strong password (8+ char, at least one upper and one lower, at least one letter and one number, and at least one special character, from \"!\", \"@\", \"#\", \"?\")"
             );
             return;
         }
 
-        if (usernameExistsCaregiver(username)) {
-            System.out.println("Username taken, try again");
+        if (usernameExistsCaregiver(session, username)) {
+            session.out.println("Username taken, try again");
             return;
         }
         byte[] salt = Util.generateSalt();
-        byte[] hash = Util.generateHash(password, salt);
         // create the caregiver
         try {
+            byte[] hash = Util.generateHashAsync(password, salt).join();
             Caregiver caregiver = new Caregiver.CaregiverBuilder(username, salt, hash).build();
             // save to caregiver information to our database
             caregiver.saveToDB();
-            System.out.println("Created user " + username);
-        } catch (SQLException e) {
-            System.out.println("Create patient failed");
+            session.out.println("Created user " + username);
+        } catch (SQLException | CompletionException e) {
+            session.out.println("Create patient failed");
         }
     }
 
-    private static boolean usernameExistsCaregiver(String username) {
+    private static boolean usernameExistsCaregiver(Session session, String username) {
         ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        cm.createReadConnection();
         String selectUsername = "SELECT * FROM Caregivers WHERE Username = ?";
         try {
-            PreparedStatement statement = con.prepareStatement(selectUsername);
+            PreparedStatement statement = cm.prepareStatement(selectUsername);
             statement.setString(1, username);
-            ResultSet resultSet = statement.executeQuery();
-            return resultSet.next();  // true if username exists
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next();  // true if username exists
+            }
         } catch (SQLException e) {
-            System.out.println("Error occurred when checking username");
+            session.out.println("Error occurred when checking username");
             return true; // prevent duplicate creation if there is an error
         } finally {
             cm.closeConnection();
         }
     }
 
-    private static void loginPatient(String[] tokens) {
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in, try again");
+    private static void loginPatient(Session session, String[] tokens) {
+        if (session.currentCaregiver != null || session.currentPatient != null) {
+            session.out.println("User already logged in, try again");
             return;
         }
 
         if (tokens.length != 3) {
-            System.out.println("Login patient failed");
+            session.out.println("Login patient failed");
             return;
         }
 
@@ -232,28 +401,28 @@ public class Scheduler {
         Patient patient = null;
         try {
             patient = new Patient.PatientGetter(username, password).get();
-        } catch (SQLException e) {
-            System.out.println("Login patient failed");
+        } catch (SQLException | CompletionException e) {
+            session.out.println("Login patient failed");
         }
 
         if (patient == null) {
-            System.out.println("Login patient failed");
+            session.out.println("Login patient failed");
         } else {
-            System.out.println("Logged in as " + username);
-            currentPatient = patient;
+            session.out.println("Logged in as " + username);
+            session.currentPatient = patient;
         }
     }
 
-    private static void loginCaregiver(String[] tokens) {
+    private static void loginCaregiver(Session session, String[] tokens) {
         // login_caregiver <username> <password>
         // check 1: if someone's already logged-in, they need to log out first
-        if (currentCaregiver != null || currentPatient != null) {
-            System.out.println("User already logged in, try again");
+        if (session.currentCaregiver != null || session.currentPatient != null) {
+            session.out.println("User already logged in, try again");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Login caregiver failed");
+            session.out.println("Login caregiver failed");
             return;
         }
         String username = tokens[1];
@@ -262,26 +431,26 @@ public class Scheduler {
         Caregiver caregiver = null;
         try {
             caregiver = new Caregiver.CaregiverGetter(username, password).get();
-        } catch (SQLException e) {
-            System.out.println("Login caregiver failed");
+        } catch (SQLException | CompletionException e) {
+            session.out.println("Login caregiver failed");
         }
         // check if the login was successful
         if (caregiver == null) {
-            System.out.println("Login caregiver failed");
+            session.out.println("Login caregiver failed");
         } else {
-            System.out.println("Logged in as: " + username);
-            currentCaregiver = caregiver;
+            session.out.println("Logged in as: " + username);
+            session.currentCaregiver = caregiver;
         }
     }
 
-    private static void searchCaregiverSchedule(String[] tokens) {
-        if (currentCaregiver == null && currentPatient == null) {
-            System.out.println("Please login first");
+    private static void searchCaregiverSchedule(Session session, String[] tokens) {
+        if (session.currentCaregiver == null && session.currentPatient == null) {
+            session.out.println("Please login first");
             return;
         }
 
         if (tokens.length != 2) {
-            System.out.println("Please try again");
+            session.out.println("Please try again");
             return;
         }
 
@@ -289,59 +458,45 @@ public class Scheduler {
 
         try {
             Date date = Date.valueOf(dateStr);
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
 
-            // Get available caregivers for the date
-            String caregiverQuery = "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username ASC";
-            PreparedStatement caregiverStmt = con.prepareStatement(caregiverQuery);
-            caregiverStmt.setDate(1, date);
-            ResultSet caregiverRs = caregiverStmt.executeQuery();
-
-            System.out.println("Caregivers:");
-            boolean caregiversExist = false;
-            while (caregiverRs.next()) {
-                caregiversExist = true;
-                System.out.println(caregiverRs.getString("Username"));
+            // Get available caregivers for the date with the number of slots each has free
+            ScheduleSearch search = ScheduleSearch.getInstance();
+            NavigableMap<String, Long> caregivers = search.caregivers(date);
+            session.out.println("Caregivers:");
+            for (Map.Entry<String, Long> caregiver : caregivers.entrySet()) {
+                session.out.println(caregiver.getKey() + " " + Slots.count(caregiver.getValue()) + " free slots");
             }
-            if (!caregiversExist) System.out.println("No caregivers available");
+            if (caregivers.isEmpty()) session.out.println("No caregivers available");
 
             // Get available vaccines
-            String vaccineQuery = "SELECT Name, Doses FROM Vaccines";
-            PreparedStatement vaccineStmt = con.prepareStatement(vaccineQuery);
-            ResultSet vaccineRs = vaccineStmt.executeQuery();
-
-            System.out.println("Vaccines:");
+            session.out.println("Vaccines:");
             boolean vaccinesExist = false;
-            while (vaccineRs.next()) {
-                int doses = vaccineRs.getInt("Doses");
-                if (doses > 0) {
+            for (Map.Entry<String, Integer> vaccine : search.vaccines().entrySet()) {
+                if (vaccine.getValue() > 0) {
                     vaccinesExist = true;
-                    System.out.println(vaccineRs.getString("Name") + " " + doses);
+                    session.out.println(vaccine.getKey() + " " + vaccine.getValue());
                 }
             }
-            if (!vaccinesExist) System.out.println("No vaccines available");
-
-            cm.closeConnection();
+            if (!vaccinesExist) session.out.println("No vaccines available");
         } catch (IllegalArgumentException e) {
-            System.out.println("Please try again");
+            session.out.println("Please try again");
         } catch (SQLException e) {
-            System.out.println("Please try again");
+            session.out.println("Please try again");
         }
     }
 
-    private static void reserve(String[] tokens) {
-        if (currentPatient == null) {
-            if (currentCaregiver == null) {
-                System.out.println("Please login first");
+    private static void reserve(Session session, String[] tokens) {
+        if (session.currentPatient == null) {
+            if (session.currentCaregiver == null) {
+                session.out.println("Please login first");
             } else {
-                System.out.println("Please login as a patient");
+                session.out.println("Please login as a patient");
             }
             return;
         }
 
         if (tokens.length != 3) {
-            System.out.println("Please try again");
+            session.out.println("Please try again");
             return;
         }
 
@@ -350,215 +505,370 @@ public class Scheduler {
 
         try {
             Date date = Date.valueOf(dateStr);
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
-
-            // 1. Check for available caregivers
-            String caregiverQuery = "SELECT Username FROM Availabilities WHERE Time = ? ORDER BY Username ASC LIMIT 1";
-            PreparedStatement caregiverStmt = con.prepareStatement(caregiverQuery);
-            caregiverStmt.setDate(1, date);
-            ResultSet caregiverRs = caregiverStmt.executeQuery();
-
-            if (!caregiverRs.next()) {
-                System.out.println("No caregiver is available");
-                cm.closeConnection();
-                return;
+            Appointment appointment = Appointment.reserve(session.currentPatient.getUsername(), date, vaccineName);
+            session.out.println("Appointment ID " + appointment.getAppointmentId()
+                    + ", Caregiver username " + appointment.getCaregiverName() + ", Time " + appointment.getTime());
+        } catch (Appointment.UnavailableException e) {
+            session.out.println(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            session.out.println("Please try again");
+        } catch (SQLException e) {
+            session.out.println("Please try again");
+        }
+    }
+
+    private static void reserveBatch(Session session, String[] tokens) {
+        // reserve_batch <patient>,<date>,<vaccine> ... books a household or group at once; the
+        // clinic's caregiver enters it for the patients
+        if (session.currentCaregiver == null) {
+            if (session.currentPatient == null) {
+                session.out.println("Please login first");
+            } else {
+                session.out.println("Please login as a caregiver");
             }
-            String caregiverUsername = caregiverRs.getString("Username");
+            return;
+        }
 
-            // 2. Check vaccine availability
-            String vaccineQuery = "SELECT Doses FROM Vaccines WHERE Name = ?";
-            PreparedStatement vaccineStmt = con.prepareStatement(vaccineQuery);
-            vaccineStmt.setString(1, vaccineName);
-            ResultSet vaccineRs = vaccineStmt.executeQuery();
+        if (tokens.length < 2) {
+            session.out.println("Please try again");
+            return;
+        }
 
-            if (!vaccineRs.next() || vaccineRs.getInt("Doses") <= 0) {
-                System.out.println("Not enough available doses");
-                cm.closeConnection();
+        List<Appointment.Request> requests = new ArrayList<>();
+        Set<String> names = new LinkedHashSet<>();
+        for (int i = 1; i < tokens.length; i++) {
+            String[] fields = tokens[i].split(",");
+            if (fields.length != 3) {
+                session.out.println("Please try again");
+                return;
+            }
+            try {
+                requests.add(new Appointment.Request(fields[0], Date.valueOf(fields[1]), fields[2]));
+            } catch (IllegalArgumentException e) {
+                session.out.println("Please try again");
                 return;
             }
+            names.add(fields[0]);
+        }
 
-            // 3. Get next appointment ID
-            String idQuery = "SELECT MAX(AppointmentID) as maxId FROM Appointments";
-            PreparedStatement idStmt = con.prepareStatement(idQuery);
-            ResultSet idRs = idStmt.executeQuery();
-            int appointmentId = 1;
-            if (idRs.next() && idRs.getInt("maxId") > 0) {
-                appointmentId = idRs.getInt("maxId") + 1;
-            }
-
-            // 4. Insert appointment
-            String insertQuery = "INSERT INTO Appointments(AppointmentID, PatientName, CaregiverName, VaccineName, Date, Time) VALUES (?, ?, ?, ?, ?, ?)";
-            PreparedStatement insertStmt = con.prepareStatement(insertQuery);
-            insertStmt.setInt(1, appointmentId);
-            insertStmt.setString(2, currentPatient.getUsername());
-            insertStmt.setString(3, caregiverUsername);
-            insertStmt.setString(4, vaccineName);
-            insertStmt.setDate(5, date);
-            insertStmt.setString(6, "09:00"); // time can be fixed
-            insertStmt.executeUpdate();
-
-            // 5. Decrease vaccine dose
-            String updateVaccine = "UPDATE Vaccines SET Doses = Doses - 1 WHERE Name = ?";
-            PreparedStatement updateStmt = con.prepareStatement(updateVaccine);
-            updateStmt.setString(1, vaccineName);
-            updateStmt.executeUpdate();
-
-            // 6. Remove caregiver availability
-            String deleteAvailability = "DELETE FROM Availabilities WHERE Time = ? AND Username = ?";
-            PreparedStatement deleteStmt = con.prepareStatement(deleteAvailability);
-            deleteStmt.setDate(1, date);
-            deleteStmt.setString(2, caregiverUsername);
-            deleteStmt.executeUpdate();
-
-            System.out.println("Appointment ID " + appointmentId + ", Caregiver username " + caregiverUsername);
+        try {
+            // requests for patients that do not exist are reported without being booked
+            Set<String> patients = existingPatients(names);
+            List<Appointment.Request> known = new ArrayList<>();
+            for (Appointment.Request request : requests) {
+                if (patients.contains(request.getPatientName())) {
+                    known.add(request);
+                }
+            }
+            Iterator<Appointment.Result> results = Appointment.reserveBatch(known).iterator();
+            for (int i = 0; i < requests.size(); i++) {
+                Appointment.Request request = requests.get(i);
+                String prefix = (i + 1) + ": " + request.getPatientName() + " ";
+                if (!patients.contains(request.getPatientName())) {
+                    session.out.println(prefix + "Patient does not exist");
+                    continue;
+                }
+                Appointment.Result result = results.next();
+                Appointment appointment = result.getAppointment();
+                if (appointment == null) {
+                    session.out.println(prefix + result.getError());
+                } else {
+                    session.out.println(prefix + "Appointment ID " + appointment.getAppointmentId()
+                            + ", Caregiver username " + appointment.getCaregiverName()
+                            + ", Time " + appointment.getTime());
+                }
+            }
+        } catch (SQLException e) {
+            session.out.println("Please try again");
+        }
+    }
 
+    // The patients among the names that exist, looked up patientLookupChunk names at a time
+    private static Set<String> existingPatients(Set<String> names) throws SQLException {
+        List<String> all = new ArrayList<>(names);
+        Set<String> existing = new HashSet<>();
+        ConnectionManager cm = new ConnectionManager();
+        cm.createReadConnection();
+        try {
+            PreparedStatement statement = cm.prepareStatement(selectPatientChunk);
+            for (int from = 0; from < all.size(); from += patientLookupChunk) {
+                List<String> chunk = all.subList(from, Math.min(from + patientLookupChunk, all.size()));
+                for (int i = 0; i < patientLookupChunk; i++) {
+                    statement.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        existing.add(resultSet.getString("Username"));
+                    }
+                }
+            }
+            return existing;
+        } finally {
             cm.closeConnection();
-        } catch (IllegalArgumentException e) {
-            System.out.println("Please try again");
-        } catch (SQLException e) {
-            System.out.println("Please try again");
         }
     }
 
-    private static void uploadAvailability(String[] tokens) {
-        // upload_availability <date>
-        // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+    private static void hold(Session session, String[] tokens) {
+        // hold <date> <vaccine>
+        if (session.currentPatient == null) {
+            if (session.currentCaregiver == null) {
+                session.out.println("Please login first");
+            } else {
+                session.out.println("Please login as a patient");
+            }
             return;
         }
-        // check 2: the length for tokens need to be exactly 2 to include all information (with the operation name)
-        if (tokens.length != 2) {
-            System.out.println("Please try again!");
+
+        if (tokens.length != 3) {
+            session.out.println("Please try again");
             return;
         }
-        String date = tokens[1];
+
         try {
-            Date d = Date.valueOf(date);
-            currentCaregiver.uploadAvailability(d);
-            System.out.println("Availability uploaded!");
+            Date date = Date.valueOf(tokens[1]);
+            Hold hold = Hold.place(session.currentPatient.getUsername(), date, tokens[2]);
+            long seconds = (hold.getExpires() - System.currentTimeMillis() + 999) / 1000;
+            session.out.println("Hold ID " + hold.getHoldId() + ", Caregiver username " + hold.getCaregiverName()
+                    + ", Time " + hold.getTime() + ", expires in " + seconds + " seconds");
+        } catch (Appointment.UnavailableException e) {
+            session.out.println(e.getMessage());
         } catch (IllegalArgumentException e) {
-            System.out.println("Please enter a valid date!");
+            session.out.println("Please try again");
         } catch (SQLException e) {
-            System.out.println("Error occurred when uploading availability");
+            session.out.println("Please try again");
         }
     }
 
-    private static void cancel(String[] tokens) {
-        if (currentPatient == null && currentCaregiver == null) {
-            System.out.println("Please login first");
+    private static void confirm(Session session, String[] tokens) {
+        // confirm <hold_id>
+        if (session.currentPatient == null) {
+            if (session.currentCaregiver == null) {
+                session.out.println("Please login first");
+            } else {
+                session.out.println("Please login as a patient");
+            }
             return;
         }
 
         if (tokens.length != 2) {
-            System.out.println("Please try again");
+            session.out.println("Please try again");
             return;
         }
 
-        int appointmentId;
         try {
-            appointmentId = Integer.parseInt(tokens[1]);
+            int holdId = Integer.parseInt(tokens[1]);
+            Appointment appointment = Hold.confirm(holdId, session.currentPatient.getUsername());
+            session.out.println("Appointment ID " + appointment.getAppointmentId()
+                    + ", Caregiver username " + appointment.getCaregiverName() + ", Time " + appointment.getTime());
+        } catch (Appointment.UnavailableException e) {
+            session.out.println(e.getMessage());
         } catch (NumberFormatException e) {
-            System.out.println("Please try again");
+            session.out.println("Please try again");
+        } catch (SQLException e) {
+            session.out.println("Please try again");
+        }
+    }
+
+    private static void waitlist(Session session, String[] tokens) {
+        // waitlist <date> <vaccine>
+        if (session.currentPatient == null) {
+            if (session.currentCaregiver == null) {
+                session.out.println("Please login first");
+            } else {
+                session.out.println("Please login as a patient");
+            }
             return;
         }
 
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
+        if (tokens.length != 3) {
+            session.out.println("Please try again");
+            return;
+        }
 
         try {
-            AppointmentInfo info = getAppointmentInfo(con, appointmentId);
+            Date date = Date.valueOf(tokens[1]);
+            int entryId = Waitlist.getInstance().join(session.currentPatient.getUsername(), date, tokens[2], session.out);
+            if (entryId < 0) {
+                session.out.println("You are already on the waitlist for " + date + " " + tokens[2]);
+            } else {
+                session.out.println("Waitlist entry " + entryId + " added, you will be booked as soon as possible");
+            }
+        } catch (IllegalArgumentException e) {
+            session.out.println("Please try again");
+        } catch (SQLException e) {
+            session.out.println("Please try again");
+        }
+    }
 
-            if (info == null) {
-                System.out.println("Appointment ID " + appointmentId + " does not exist");
-                return;
+    private static void waitlistStatus(Session session, String[] tokens) {
+        if (session.currentPatient == null) {
+            session.out.println("Please login as a patient");
+            return;
+        }
+
+        if (tokens.length != 1) {
+            session.out.println("Please try again");
+            return;
+        }
+
+        try {
+            List<String> entries = Waitlist.getInstance().status(session.currentPatient.getUsername());
+            if (entries.isEmpty()) {
+                session.out.println("You are not on the waitlist");
+            }
+            for (String entry : entries) {
+                session.out.println(entry);
             }
+        } catch (SQLException e) {
+            session.out.println("Please try again");
+        }
+    }
 
-            if (currentPatient != null &&
-                    !info.patient.equals(currentPatient.getUsername())) {
-                System.out.println("Appointment ID " + appointmentId + " does not exist");
-                return;
+    private static void uploadAvailability(Session session, String[] tokens) {
+        // upload_availability <date> [<from> <to>]
+        // from and to are times such as 09:00 and 12:30; without them every slot of the day is offered
+        // check 1: check if the current logged-in user is a caregiver
+        if (session.currentCaregiver == null) {
+            session.out.println("Please login as a caregiver first!");
+            return;
+        }
+        // check 2: the tokens need to be the date, optionally followed by a time range (with the operation name)
+        if (tokens.length != 2 && tokens.length != 4) {
+            session.out.println("Please try again!");
+            return;
+        }
+        long slots = Slots.ALL;
+        if (tokens.length == 4) {
+            try {
+                slots = Slots.range(LocalTime.parse(tokens[2]), LocalTime.parse(tokens[3]));
+            } catch (DateTimeParseException e) {
+                slots = 0;
             }
-            if (currentCaregiver != null &&
-                    !info.caregiver.equals(currentCaregiver.getUsername())) {
-                System.out.println("Appointment ID " + appointmentId + " does not exist");
+            if (slots == 0) {
+                session.out.println("Please enter a valid time range, such as 09:00 12:00!");
                 return;
             }
+        }
+        String date = tokens[1];
+        try {
+            Date d = Date.valueOf(date);
+            session.currentCaregiver.uploadAvailability(d, slots);
+            session.out.println("Availability uploaded!");
+        } catch (IllegalArgumentException e) {
+            session.out.println("Please enter a valid date!");
+        } catch (SQLException e) {
+            session.out.println("Error occurred when uploading availability");
+        }
+    }
 
-            PreparedStatement deleteStmt =
-                    con.prepareStatement("DELETE FROM Appointments WHERE AppointmentID = ?");
-            deleteStmt.setInt(1, appointmentId);
-            deleteStmt.executeUpdate();
-
-            PreparedStatement doseStmt =
-                    con.prepareStatement("UPDATE Vaccines SET Doses = Doses + 1 WHERE Name = ?");
-            doseStmt.setString(1, info.vaccine);
-            doseStmt.executeUpdate();
-
-            PreparedStatement availStmt =
-                    con.prepareStatement("INSERT INTO Availabilities (Username, Time) VALUES (?, ?)");
-            availStmt.setString(1, info.caregiver);
-            availStmt.setDate(2, info.date);
-            availStmt.executeUpdate();
-
-            System.out.println("Appointment ID " + appointmentId + " has been successfully canceled");
-
+    private static void uploadAvailabilityRange(Session session, String[] tokens) {
+        // upload_availability_range <start> <end> [weekdays]
+        // weekdays is a comma separated list such as MON,WED,FRI and defaults to every day
+        if (session.currentCaregiver == null) {
+            session.out.println("Please login as a caregiver first!");
+            return;
+        }
+        if (tokens.length != 3 && tokens.length != 4) {
+            session.out.println("Please try again!");
+            return;
+        }
+        Set<DayOfWeek> weekdays = EnumSet.allOf(DayOfWeek.class);
+        if (tokens.length == 4) {
+            weekdays = parseWeekdays(tokens[3]);
+            if (weekdays == null) {
+                session.out.println("Please enter valid weekdays, such as MON,WED,FRI!");
+                return;
+            }
+        }
+        try {
+            Date start = Date.valueOf(tokens[1]);
+            Date end = Date.valueOf(tokens[2]);
+            int added = session.currentCaregiver.uploadAvailabilityRange(start, end, weekdays);
+            session.out.println("Availability uploaded for " + added + " dates!");
+        } catch (IllegalArgumentException e) {
+            session.out.println("Please enter a valid date range!");
         } catch (SQLException e) {
-            System.out.println("Please try again");
-        } finally {
-            cm.closeConnection();
+            session.out.println("Error occurred when uploading availability");
         }
     }
 
-    private static class AppointmentInfo {
-        int id;
-        String vaccine;
-        java.sql.Date date;
-        String caregiver;
-        String patient;
-
-        AppointmentInfo(int id, String vaccine, java.sql.Date date,
-                        String caregiver, String patient) {
-            this.id = id;
-            this.vaccine = vaccine;
-            this.date = date;
-            this.caregiver = caregiver;
-            this.patient = patient;
+    // Parses a list like "MON,WED,FRI" (any unambiguous prefix of at least three letters works)
+    private static Set<DayOfWeek> parseWeekdays(String list) {
+        Set<DayOfWeek> weekdays = EnumSet.noneOf(DayOfWeek.class);
+        for (String name : list.split(",")) {
+            String prefix = name.trim().toUpperCase();
+            DayOfWeek match = null;
+            for (DayOfWeek day : DayOfWeek.values()) {
+                if (prefix.length() >= 3 && day.name().startsWith(prefix)) {
+                    match = day;
+                }
+            }
+            if (match == null) {
+                return null;
+            }
+            weekdays.add(match);
         }
+        return weekdays;
     }
 
-    private static AppointmentInfo getAppointmentInfo(Connection con, int id) throws SQLException {
-        String sql = "SELECT AppointmentID, Vaccine, Date, Caregiver, Patient " +
-                "FROM Appointments WHERE AppointmentID = ?";
+    private static void cancel(Session session, String[] tokens) {
+        if (session.currentPatient == null && session.currentCaregiver == null) {
+            session.out.println("Please login first");
+            return;
+        }
 
-        PreparedStatement stmt = con.prepareStatement(sql);
-        stmt.setInt(1, id);
-        ResultSet rs = stmt.executeQuery();
+        if (tokens.length != 2) {
+            session.out.println("Please try again");
+            return;
+        }
 
-        if (!rs.next()) {
-            return null;
+        int appointmentId;
+        try {
+            appointmentId = Integer.parseInt(tokens[1]);
+        } catch (NumberFormatException e) {
+            session.out.println("Please try again");
+            return;
         }
 
-        return new AppointmentInfo(
-                rs.getInt("AppointmentID"),
-                rs.getString("Vaccine"),
-                rs.getDate("Date"),
-                rs.getString("Caregiver"),
-                rs.getString("Patient")
-        );
+        try {
+            Appointment appointment = new Appointment.AppointmentGetter(appointmentId).get();
+
+            if (appointment == null) {
+                session.out.println("Appointment ID " + appointmentId + " does not exist");
+                return;
+            }
+
+            if (session.currentPatient != null &&
+                    !appointment.getPatientName().equals(session.currentPatient.getUsername())) {
+                session.out.println("Appointment ID " + appointmentId + " does not exist");
+                return;
+            }
+            if (session.currentCaregiver != null &&
+                    !appointment.getCaregiverName().equals(session.currentCaregiver.getUsername())) {
+                session.out.println("Appointment ID " + appointmentId + " does not exist");
+                return;
+            }
+
+            if (!appointment.cancel()) {
+                session.out.println("Appointment ID " + appointmentId + " does not exist");
+                return;
+            }
+            session.out.println("Appointment ID " + appointmentId + " has been successfully canceled");
+        } catch (SQLException e) {
+            session.out.println("Please try again");
+        }
     }
 
-    private static void addDoses(String[] tokens) {
+    private static void addDoses(Session session, String[] tokens) {
         // add_doses <vaccine> <number>
         // check 1: check if the current logged-in user is a caregiver
-        if (currentCaregiver == null) {
-            System.out.println("Please login as a caregiver first!");
+        if (session.currentCaregiver == null) {
+            session.out.println("Please login as a caregiver first!");
             return;
         }
         // check 2: the length for tokens need to be exactly 3 to include all information (with the operation name)
         if (tokens.length != 3) {
-            System.out.println("Please try again!");
+            session.out.println("Please try again!");
             return;
         }
         String vaccineName = tokens[1];
@@ -567,7 +877,7 @@ public class Scheduler {
         try {
             vaccine = new Vaccine.VaccineGetter(vaccineName).get();
         } catch (SQLException e) {
-            System.out.println("Error occurred when adding doses");
+            session.out.println("Error occurred when adding doses");
         }
         // check 3: if getter returns null, it means that we need to create the vaccine and insert it into the Vaccines
         //          table
@@ -576,81 +886,196 @@ public class Scheduler {
                 vaccine = new Vaccine.VaccineBuilder(vaccineName, doses).build();
                 vaccine.saveToDB();
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                session.out.println("Error occurred when adding doses");
             }
         } else {
             // if the vaccine is not null, meaning that the vaccine already exists in our table
             try {
                 vaccine.increaseAvailableDoses(doses);
             } catch (SQLException e) {
-                System.out.println("Error occurred when adding doses");
+                session.out.println("Error occurred when adding doses");
             }
         }
-        System.out.println("Doses updated!");
+        session.out.println("Doses updated!");
     }
 
-    private static void showAppointments(String[] tokens) {
-        if (tokens.length != 1) {
-            System.out.println("Please try again");
+    private static void getVaccineInformation(Session session, String[] tokens) {
+        // get_vaccine_information [vaccine]
+        if (tokens.length > 2) {
+            session.out.println("Please try again!");
+            return;
+        }
+        try {
+            List<Vaccine> vaccines;
+            if (tokens.length == 2) {
+                Vaccine vaccine = new Vaccine.VaccineGetter(tokens[1]).get();
+                vaccines = vaccine == null ? List.of() : List.of(vaccine);
+            } else {
+                vaccines = Vaccine.getAll();
+            }
+            if (vaccines.isEmpty()) {
+                session.out.println("No vaccines found");
+            }
+            for (Vaccine vaccine : vaccines) {
+                session.out.println(vaccine.getVaccineName() + " " + vaccine.getAvailableDoses());
+            }
+        } catch (SQLException e) {
+            session.out.println("Error occurred when getting vaccine information");
+        }
+    }
+
+    private static void showAppointments(Session session, String[] tokens) {
+        // show_appointments [after_id] [limit] [from_date to_date] shows one page of appointments
+        // in ID order: those after after_id (default: from the start), at most limit of them
+        // (default AppointmentPageSize, at most MaxAppointmentPageSize), optionally only those
+        // dated from from_date to to_date
+        if (tokens.length > 5 || tokens.length == 4) {
+            session.out.println("Please try again");
             return;
         }
 
-        if (currentPatient == null && currentCaregiver == null) {
-            System.out.println("Please login first");
+        if (session.currentPatient == null && session.currentCaregiver == null) {
+            session.out.println("Please login first");
             return;
         }
 
+        int afterId;
+        int limit;
+        Date from;
+        Date to;
         try {
-            ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
+            afterId = tokens.length > 1 ? Integer.parseInt(tokens[1]) : 0;
+            // every shard reads and buffers up to a page, so the page size has to stay bounded
+            limit = tokens.length > 2 ? Math.min(Integer.parseInt(tokens[2]), maxAppointmentPageSize)
+                    : appointmentPageSize;
+            from = tokens.length > 3 ? Date.valueOf(tokens[3]) : Date.valueOf("0001-01-01");
+            to = tokens.length > 3 ? Date.valueOf(tokens[4]) : Date.valueOf("9999-12-31");
+        } catch (IllegalArgumentException e) {
+            session.out.println("Please try again");
+            return;
+        }
+        if (limit <= 0) {
+            session.out.println("Please try again");
+            return;
+        }
 
-            String query;
-            String username;
-            boolean isCaregiver = false;
+        String query;
+        String username;
+        boolean isCaregiver = false;
+
+        // keyset pagination: each page seeks straight to after_id in the covering index on
+        // (name, AppointmentID), so a late page costs no more than the first
+        if (session.currentCaregiver != null) {
+            username = session.currentCaregiver.getUsername();
+            query = "SELECT AppointmentID, VaccineName, Date, PatientName FROM Appointments WHERE CaregiverName = ? "
+                    + "AND AppointmentID > ? AND Date >= ? AND Date <= ? ORDER BY AppointmentID ASC LIMIT ?";
+            isCaregiver = true;
+        } else {
+            username = session.currentPatient.getUsername();
+            query = "SELECT AppointmentID, VaccineName, Date, CaregiverName FROM Appointments WHERE PatientName = ? "
+                    + "AND AppointmentID > ? AND Date >= ? AND Date <= ? ORDER BY AppointmentID ASC LIMIT ?";
+        }
 
-            if (currentCaregiver != null) {
-                username = currentCaregiver.getUsername();
-                query = "SELECT AppointmentID, VaccineName, Date, PatientName FROM Appointments WHERE CaregiverName = ? ORDER BY AppointmentID ASC";
-                isCaregiver = true;
-            } else {
-                username = currentPatient.getUsername();
-                query = "SELECT AppointmentID, VaccineName, Date, CaregiverName FROM Appointments WHERE PatientName = ? ORDER BY AppointmentID ASC";
+        try {
+            // the appointments are spread over every shard, which are all asked at once for a
+            // page each; the page shown is the first limit of them, so memory stays bounded by
+            // the page size however many appointments there are
+            final boolean caregiver = isCaregiver;
+            TreeMap<Integer, String> appointments = new TreeMap<>();
+            for (Map<Integer, String> shard : ShardRouter.forEachShard(shard -> {
+                Map<Integer, String> lines = new HashMap<>();
+                ConnectionManager cm = new ConnectionManager(shard);
+                try {
+                    cm.createReadConnection();
+                    PreparedStatement stmt = cm.prepareStatement(query);
+                    stmt.setFetchSize(limit);
+                    stmt.setString(1, username);
+                    stmt.setInt(2, afterId);
+                    stmt.setDate(3, from);
+                    stmt.setDate(4, to);
+                    stmt.setInt(5, limit);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            int id = rs.getInt("AppointmentID");
+                            String vaccine = rs.getString("VaccineName");
+                            Date date = rs.getDate("Date");
+                            String other = caregiver ? rs.getString("PatientName") : rs.getString("CaregiverName");
+                            lines.put(id, id + " " + vaccine + " " + date + " " + other);
+                        }
+                    }
+                } finally {
+                    cm.closeConnection();
+                }
+                return lines;
+            })) {
+                appointments.putAll(shard);
             }
 
-            PreparedStatement stmt = con.prepareStatement(query);
-            stmt.setString(1, username);
-            ResultSet rs = stmt.executeQuery();
-
-            boolean exists = false;
-            while (rs.next()) {
-                exists = true;
-                int id = rs.getInt("AppointmentID");
-                String vaccine = rs.getString("VaccineName");
-                Date date = rs.getDate("Date");
-                String other = isCaregiver ? rs.getString("PatientName") : rs.getString("CaregiverName");
-                System.out.println(id + " " + vaccine + " " + date + " " + other);
+            int shown = 0;
+            int lastId = afterId;
+            for (Map.Entry<Integer, String> appointment : appointments.entrySet()) {
+                if (shown == limit) {
+                    break;
+                }
+                session.out.println(appointment.getValue());
+                lastId = appointment.getKey();
+                shown++;
             }
+            if (shown == 0) {
+                session.out.println("No appointments scheduled");
+            } else if (appointments.size() >= limit) {
+                // a full page: there may be more after it
+                session.out.println("More: show_appointments " + lastId + " " + limit
+                        + (tokens.length > 3 ? " " + tokens[3] + " " + tokens[4] : ""));
+            }
+        } catch (SQLException e) {
+            session.out.println("Please try again");
+        }
+    }
 
-            if (!exists) System.out.println("No appointments scheduled");
-
-            cm.closeConnection();
+    private static void verifyAvailability(Session session, String[] tokens) {
+        // verify_availability compares the in-memory availability index with the database
+        if (tokens.length != 1) {
+            session.out.println("Please try again");
+            return;
+        }
+        try {
+            List<String> differences = AvailabilityIndex.getInstance().verify();
+            for (String difference : differences) {
+                session.out.println(difference);
+            }
+            session.out.println(differences.isEmpty()
+                    ? "Availability index is consistent"
+                    : differences.size() + " differences found");
         } catch (SQLException e) {
-            System.out.println("Please try again");
+            session.out.println("Please try again");
         }
     }
 
-    private static void logout(String[] tokens) {
+    private static void stats(Session session, String[] tokens) {
+        // stats prints command, SQL and hashing latencies and the connection pool's usage
         if (tokens.length != 1) {
-            System.out.println("Please try again");
+            session.out.println("Please try again");
             return;
         }
+        session.out.print(Metrics.render());
+    }
 
-        if (currentPatient == null && currentCaregiver == null) {
-            System.out.println("Please login first");
+    private static void logout(Session session, String[] tokens) {
+        if (tokens.length != 1) {
+            session.out.println("Please try again");
             return;
         }
-        currentPatient = null;
-        currentCaregiver = null;
-        System.out.println("Successfully logged out");
+
+        if (session.currentPatient == null && session.currentCaregiver == null) {
+            session.out.println("Please login first");
+            return;
+        }
+        if (session.currentPatient != null) {
+            Waitlist.getInstance().unsubscribe(session.currentPatient.getUsername(), session.out);
+        }
+        session.currentPatient = null;
+        session.currentCaregiver = null;
+        session.out.println("Successfully logged out");
     }
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package scheduler;
+
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+
+import java.io.PrintStream;
+
+/**
+ * The state of one connected user: who is logged in and where command output goes.
+ */
+public class Session {
+    // objects to keep track of the currently logged-in user
+    // Note: it is always true that at most one of currentCaregiver and currentPatient is not null
+    //       since only one user can be logged-in per session at a time
+    Caregiver currentCaregiver = null;
+    Patient currentPatient = null;
+
+    final PrintStream out;
+
+    public Session(PrintStream out) {
+        this.out = out;
+    }
+}
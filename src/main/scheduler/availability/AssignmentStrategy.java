@@ -0,0 +1,225 @@
+package scheduler.availability;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ShardRouter;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides the order in which reserve tries the caregivers available on a date. Always starting
+ * with the alphabetically first caregiver makes that caregiver's Availabilities row the one
+ * every concurrent reservation fights over, so the other strategies start somewhere else.
+ * Candidates come from the {@link AvailabilityIndex}; the reservation still has the final word
+ * by claiming the slot's bit in the Booked mask of the caregiver's availability row, which only
+ * succeeds while that slot is free.
+ *
+ * The strategy is chosen per deployment with the AssignmentStrategy setting: alphabetical (the
+ * default), round_robin, least_booked or random.
+ */
+public abstract class AssignmentStrategy {
+    private static final AssignmentStrategy instance = forName(System.getenv("AssignmentStrategy"));
+
+    public static AssignmentStrategy getInstance() {
+        return instance;
+    }
+
+    static AssignmentStrategy forName(String name) {
+        if (name == null || name.isEmpty() || name.equalsIgnoreCase("alphabetical")) {
+            return new Alphabetical();
+        }
+        switch (name.toLowerCase()) {
+            case "round_robin":
+                return new RoundRobin();
+            case "least_booked":
+                return new LeastBooked();
+            case "random":
+                return new RandomPick();
+            default:
+                System.out.println("Ignoring unknown AssignmentStrategy: " + name);
+                return new Alphabetical();
+        }
+    }
+
+    public abstract String getName();
+
+    // The caregivers to try for the date, best first. The iterator is weakly consistent, so
+    // caregivers removed from the index while it is walked are skipped or returned harmlessly.
+    public abstract Iterator<String> candidates(Date date);
+
+    // Called once the booking or cancellation of an appointment with the caregiver has committed
+    public void booked(Date date, String caregiver) {
+    }
+
+    public void released(Date date, String caregiver) {
+    }
+
+    // Loads whatever state the strategy keeps about existing appointments
+    public void load() throws SQLException {
+    }
+
+    // The set's elements from the first one at or after the pivot to the end, then from the
+    // start up to the pivot
+    static Iterator<String> wrapAround(NavigableSet<String> caregivers, String pivot) {
+        Iterator<String> tail = caregivers.tailSet(pivot, true).iterator();
+        Iterator<String> head = caregivers.headSet(pivot, false).iterator();
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return tail.hasNext() || head.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return tail.hasNext() ? tail.next() : head.next();
+            }
+        };
+    }
+
+    static class Alphabetical extends AssignmentStrategy {
+        @Override
+        public String getName() {
+            return "alphabetical";
+        }
+
+        @Override
+        public Iterator<String> candidates(Date date) {
+            return AvailabilityIndex.getInstance().available(date).iterator();
+        }
+    }
+
+    // Starts after the caregiver most recently booked on the date, wrapping around
+    static class RoundRobin extends AssignmentStrategy {
+        private final ConcurrentHashMap<LocalDate, String> lastBooked = new ConcurrentHashMap<>();
+
+        @Override
+        public String getName() {
+            return "round_robin";
+        }
+
+        @Override
+        public Iterator<String> candidates(Date date) {
+            NavigableSet<String> caregivers = AvailabilityIndex.getInstance().available(date);
+            String last = lastBooked.get(date.toLocalDate());
+            if (last == null) {
+                return caregivers.iterator();
+            }
+            // "\0" sorts directly after last, so the pivot is the caregiver following it
+            return wrapAround(caregivers, last + "\0");
+        }
+
+        @Override
+        public void booked(Date date, String caregiver) {
+            lastBooked.put(date.toLocalDate(), caregiver);
+        }
+    }
+
+    // Starts at a random caregiver. The pivot is drawn from every caregiver the index has seen,
+    // so finding it stays O(log n); a caregiver who follows others not available that day is
+    // somewhat more likely to be chosen than a perfectly uniform pick would make them.
+    static class RandomPick extends AssignmentStrategy {
+        @Override
+        public String getName() {
+            return "random";
+        }
+
+        @Override
+        public Iterator<String> candidates(Date date) {
+            AvailabilityIndex index = AvailabilityIndex.getInstance();
+            String pivot = index.anyCaregiver(ThreadLocalRandom.current());
+            NavigableSet<String> caregivers = index.available(date);
+            return pivot == null ? caregivers.iterator() : wrapAround(caregivers, pivot);
+        }
+    }
+
+    // Prefers the caregiver with the fewest appointments in the date's week (Monday to Sunday),
+    // breaking ties by username
+    static class LeastBooked extends AssignmentStrategy {
+        private final ConcurrentHashMap<LocalDate, ConcurrentHashMap<String, AtomicInteger>> byWeek =
+                new ConcurrentHashMap<>();
+
+        @Override
+        public String getName() {
+            return "least_booked";
+        }
+
+        @Override
+        public Iterator<String> candidates(Date date) {
+            Map<String, AtomicInteger> counts = byWeek.getOrDefault(weekOf(date.toLocalDate()), new ConcurrentHashMap<>());
+            List<String> caregivers = new ArrayList<>(AvailabilityIndex.getInstance().available(date));
+            // sort on a snapshot: counts that other reservations change mid-sort would break the
+            // comparator's contract. The caregivers available on one date are few, so this is cheap.
+            Map<String, Integer> snapshot = new HashMap<>();
+            for (String caregiver : caregivers) {
+                snapshot.put(caregiver, count(counts, caregiver));
+            }
+            caregivers.sort(Comparator.comparingInt(snapshot::get));
+            return caregivers.iterator();
+        }
+
+        @Override
+        public void booked(Date date, String caregiver) {
+            byWeek.computeIfAbsent(weekOf(date.toLocalDate()), w -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(caregiver, c -> new AtomicInteger()).incrementAndGet();
+        }
+
+        @Override
+        public void released(Date date, String caregiver) {
+            Map<String, AtomicInteger> counts = byWeek.get(weekOf(date.toLocalDate()));
+            AtomicInteger count = counts == null ? null : counts.get(caregiver);
+            if (count != null) {
+                count.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void load() throws SQLException {
+            // a week can span two months, and so two shards, so the shards share one map
+            ConcurrentHashMap<LocalDate, ConcurrentHashMap<String, AtomicInteger>> loaded = new ConcurrentHashMap<>();
+            ShardRouter.forEachShard(shard -> {
+                ConnectionManager cm = new ConnectionManager(shard);
+                cm.createReadConnection();
+                try {
+                    PreparedStatement statement = cm.prepareStatement("SELECT Date, CaregiverName FROM Appointments");
+                    try (ResultSet rs = statement.executeQuery()) {
+                        while (rs.next()) {
+                            loaded.computeIfAbsent(weekOf(rs.getDate("Date").toLocalDate()), w -> new ConcurrentHashMap<>())
+                                    .computeIfAbsent(rs.getString("CaregiverName"), c -> new AtomicInteger())
+                                    .incrementAndGet();
+                        }
+                    }
+                } finally {
+                    cm.closeConnection();
+                }
+                return null;
+            });
+            byWeek.clear();
+            byWeek.putAll(loaded);
+        }
+
+        private static int count(Map<String, AtomicInteger> counts, String caregiver) {
+            AtomicInteger count = counts.get(caregiver);
+            return count == null ? 0 : count.get();
+        }
+
+        private static LocalDate weekOf(LocalDate date) {
+            return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        }
+    }
+}
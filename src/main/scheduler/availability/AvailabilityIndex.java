@@ -0,0 +1,248 @@
+package scheduler.availability;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.ShardRouter;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory copy of the free slots in the Availabilities table: for every date, the
+ * caregivers with at least one free slot that day in username order, each with the bitmask of
+ * their free slots (see {@link Slots}). It is loaded once at startup and then kept current by
+ * the code that writes the table, which updates the index only after its transaction commits.
+ * The table stays the source of truth: writers still check their changes against it, and an
+ * entry the index has but the table does not is corrected as soon as a writer notices.
+ */
+public class AvailabilityIndex {
+    private static final AvailabilityIndex instance = new AvailabilityIndex();
+
+    // replaced as a whole by load(), so that readers see either the old contents or the new
+    private volatile ConcurrentHashMap<LocalDate, ConcurrentSkipListMap<String, Long>> byDate = new ConcurrentHashMap<>();
+
+    // writers to the index share the read side; load() takes the write side from before it
+    // reads the table until the new contents are in place, so that a change made meanwhile is
+    // applied to the new contents rather than to the ones being thrown away
+    private final ReentrantReadWriteLock reloading = new ReentrantReadWriteLock();
+    private final Lock writing = reloading.readLock();
+
+    // bumped after every change to a date, so that copies of a date's entries can tell they are stale
+    private final ConcurrentHashMap<LocalDate, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    // every caregiver the index has seen, for picking a random one in constant time
+    private final Set<String> known = ConcurrentHashMap.newKeySet();
+    private final List<String> knownList = new ArrayList<>();
+
+    private AvailabilityIndex() {
+    }
+
+    public static AvailabilityIndex getInstance() {
+        return instance;
+    }
+
+    // Replaces the index contents with the current contents of the Availabilities table
+    public void load() throws SQLException {
+        reloading.writeLock().lock();
+        try {
+            Map<LocalDate, NavigableMap<String, Long>> table = readTable();
+            ConcurrentHashMap<LocalDate, ConcurrentSkipListMap<String, Long>> loaded = new ConcurrentHashMap<>();
+            for (Map.Entry<LocalDate, NavigableMap<String, Long>> entry : table.entrySet()) {
+                loaded.put(entry.getKey(), new ConcurrentSkipListMap<>(entry.getValue()));
+                entry.getValue().keySet().forEach(this::remember);
+            }
+            Set<LocalDate> changed = new HashSet<>(byDate.keySet());
+            changed.addAll(table.keySet());
+            byDate = loaded;
+            changed.forEach(this::changed);
+        } finally {
+            reloading.writeLock().unlock();
+        }
+    }
+
+    // A number that changes whenever the date's entries do. Read it before copying the entries:
+    // if it is still the same later, the copy is still current.
+    public long version(Date date) {
+        AtomicLong version = versions.get(date.toLocalDate());
+        return version == null ? 0 : version.get();
+    }
+
+    private void changed(LocalDate date) {
+        versions.computeIfAbsent(date, d -> new AtomicLong()).incrementAndGet();
+    }
+
+    // Marks the slots as free
+    public void add(Date date, String caregiver, long slots) {
+        if (slots == 0) {
+            return;
+        }
+        writing.lock();
+        try {
+            byDate.computeIfAbsent(date.toLocalDate(), d -> new ConcurrentSkipListMap<>())
+                    .merge(caregiver, slots, (a, b) -> a | b);
+            remember(caregiver);
+            changed(date.toLocalDate());
+        } finally {
+            writing.unlock();
+        }
+    }
+
+    // Marks the slots as taken; a caregiver without free slots leaves the date
+    public void remove(Date date, String caregiver, long slots) {
+        writing.lock();
+        try {
+            ConcurrentSkipListMap<String, Long> caregivers = byDate.get(date.toLocalDate());
+            if (caregivers != null) {
+                caregivers.computeIfPresent(caregiver, (c, free) -> (free & ~slots) == 0 ? null : free & ~slots);
+            }
+            changed(date.toLocalDate());
+        } finally {
+            writing.unlock();
+        }
+    }
+
+    // Replaces the caregiver's free slots on the date
+    public void set(Date date, String caregiver, long free) {
+        writing.lock();
+        try {
+            if (free == 0) {
+                ConcurrentSkipListMap<String, Long> caregivers = byDate.get(date.toLocalDate());
+                if (caregivers != null) {
+                    caregivers.remove(caregiver);
+                }
+            } else {
+                byDate.computeIfAbsent(date.toLocalDate(), d -> new ConcurrentSkipListMap<>()).put(caregiver, free);
+                remember(caregiver);
+            }
+            changed(date.toLocalDate());
+        } finally {
+            writing.unlock();
+        }
+    }
+
+    // The caregiver's free slots on the date, 0 if none
+    public long free(Date date, String caregiver) {
+        ConcurrentSkipListMap<String, Long> caregivers = byDate.get(date.toLocalDate());
+        Long free = caregivers == null ? null : caregivers.get(caregiver);
+        return free == null ? 0 : free;
+    }
+
+    private void remember(String caregiver) {
+        if (known.add(caregiver)) {
+            synchronized (knownList) {
+                knownList.add(caregiver);
+            }
+        }
+    }
+
+    // Any caregiver the index has seen, whether or not they are available now; null if none
+    public String anyCaregiver(Random random) {
+        synchronized (knownList) {
+            return knownList.isEmpty() ? null : knownList.get(random.nextInt(knownList.size()));
+        }
+    }
+
+    // A live, read-only view of the caregivers with free slots on the date in username order
+    public NavigableSet<String> available(Date date) {
+        ConcurrentSkipListMap<String, Long> caregivers = byDate.get(date.toLocalDate());
+        if (caregivers == null) {
+            return Collections.emptyNavigableSet();
+        }
+        return Collections.unmodifiableNavigableSet(caregivers.navigableKeySet());
+    }
+
+    // A sorted snapshot of the caregivers with free slots on the date and their free slots
+    public NavigableMap<String, Long> slots(Date date) {
+        ConcurrentSkipListMap<String, Long> caregivers = byDate.get(date.toLocalDate());
+        if (caregivers == null) {
+            return Collections.emptyNavigableMap();
+        }
+        return new TreeMap<>(caregivers);
+    }
+
+    // Reads the caregiver's free slots on the date from the table, on the caller's connection
+    public static long readFree(ConnectionManager cm, Date date, String caregiver) throws SQLException {
+        PreparedStatement statement = cm.prepareStatement(
+                "SELECT Slots & ~Booked AS Free FROM Availabilities WHERE Time = ? AND Username = ?");
+        statement.setDate(1, date);
+        statement.setString(2, caregiver);
+        try (ResultSet rs = statement.executeQuery()) {
+            return rs.next() ? rs.getLong("Free") : 0;
+        }
+    }
+
+    // Compares the index with the table and describes every difference; an empty list means
+    // the two agree
+    public List<String> verify() throws SQLException {
+        Map<LocalDate, NavigableMap<String, Long>> table = readTable();
+        ConcurrentHashMap<LocalDate, ConcurrentSkipListMap<String, Long>> index = byDate;
+        List<String> differences = new ArrayList<>();
+        for (Map.Entry<LocalDate, NavigableMap<String, Long>> entry : table.entrySet()) {
+            ConcurrentSkipListMap<String, Long> indexed = index.get(entry.getKey());
+            for (Map.Entry<String, Long> caregiver : entry.getValue().entrySet()) {
+                Long free = indexed == null ? null : indexed.get(caregiver.getKey());
+                if (free == null) {
+                    differences.add("missing from index: " + entry.getKey() + " " + caregiver.getKey());
+                } else if (!free.equals(caregiver.getValue())) {
+                    differences.add("free slots differ: " + entry.getKey() + " " + caregiver.getKey()
+                            + " index " + Long.toBinaryString(free) + " table " + Long.toBinaryString(caregiver.getValue()));
+                }
+            }
+        }
+        for (Map.Entry<LocalDate, ConcurrentSkipListMap<String, Long>> entry : index.entrySet()) {
+            NavigableMap<String, Long> stored = table.get(entry.getKey());
+            for (String caregiver : entry.getValue().keySet()) {
+                if (stored == null || !stored.containsKey(caregiver)) {
+                    differences.add("missing from table: " + entry.getKey() + " " + caregiver);
+                }
+            }
+        }
+        return differences;
+    }
+
+    private static Map<LocalDate, NavigableMap<String, Long>> readTable() throws SQLException {
+        // every date is on one shard only, so the shards' tables never overlap
+        Map<LocalDate, NavigableMap<String, Long>> table = new HashMap<>();
+        for (Map<LocalDate, NavigableMap<String, Long>> shard : ShardRouter.forEachShard(AvailabilityIndex::readTable)) {
+            table.putAll(shard);
+        }
+        return table;
+    }
+
+    private static Map<LocalDate, NavigableMap<String, Long>> readTable(int shard) throws SQLException {
+        Map<LocalDate, NavigableMap<String, Long>> table = new HashMap<>();
+        ConnectionManager cm = new ConnectionManager(shard);
+        cm.createReadConnection();
+        try {
+            PreparedStatement statement = cm.prepareStatement(
+                    "SELECT Time, Username, Slots & ~Booked AS Free FROM Availabilities WHERE Slots & ~Booked <> 0");
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    table.computeIfAbsent(rs.getDate("Time").toLocalDate(), d -> new TreeMap<>())
+                            .put(rs.getString("Username"), rs.getLong("Free"));
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return table;
+    }
+}
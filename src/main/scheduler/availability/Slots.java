@@ -0,0 +1,62 @@
+package scheduler.availability;
+
+import scheduler.util.Util;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * The appointment slots of a caregiver's day. A day is divided into SlotsPerDay slots of
+ * SlotMinutes each, starting at 09:00, and a set of slots is stored as a bitmask in which bit i
+ * stands for slot i. The Availabilities table keeps one row per caregiver and day with the
+ * slots offered (Slots) and the slots taken (Booked), so a whole day costs a single row.
+ */
+public final class Slots {
+    public static final LocalTime FIRST = LocalTime.of(9, 0);
+    public static final int MINUTES = Math.max(1, Util.intEnv("SlotMinutes", 15));
+    // at most 63 so masks stay positive, and the last slot has to start before midnight
+    public static final int PER_DAY = Math.max(1, Math.min(Util.intEnv("SlotsPerDay", 32),
+            Math.min(63, (24 * 60 - FIRST.toSecondOfDay() / 60 - 1) / MINUTES + 1)));
+    public static final long ALL = (1L << PER_DAY) - 1;
+
+    private Slots() {
+    }
+
+    public static long bit(int slot) {
+        return 1L << slot;
+    }
+
+    // The slots that start at or after start and before end
+    public static long range(LocalTime start, LocalTime end) {
+        long mask = 0;
+        for (int slot = 0; slot < PER_DAY; slot++) {
+            LocalTime time = FIRST.plusMinutes((long) slot * MINUTES);
+            if (!time.isBefore(start) && time.isBefore(end)) {
+                mask |= bit(slot);
+            }
+        }
+        return mask;
+    }
+
+    // The start time of the slot, formatted like 09:15
+    public static String time(int slot) {
+        return FIRST.plusMinutes((long) slot * MINUTES).toString();
+    }
+
+    // The slot starting at the given time, or -1 if no slot starts then
+    public static int slotOf(String time) {
+        try {
+            int minutes = LocalTime.parse(time).toSecondOfDay() / 60 - FIRST.toSecondOfDay() / 60;
+            if (minutes < 0 || minutes % MINUTES != 0 || minutes / MINUTES >= PER_DAY) {
+                return -1;
+            }
+            return minutes / MINUTES;
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    public static int count(long mask) {
+        return Long.bitCount(mask);
+    }
+}
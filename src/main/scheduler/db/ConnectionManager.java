@@ -1,38 +1,294 @@
 package scheduler.db;
 
+import scheduler.metrics.Metrics;
+import scheduler.util.Util;
+
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.Date;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class ConnectionManager {
 
-    private final String driverName = "org.sqlite.JDBC";
-    private final String connectionUrl = "jdbc:sqlite:" + System.getenv("DBPath");
+    private static final Dialect dialect = Dialect.getInstance();
 
-    private Connection con = null;
+    // pool settings, overridable through the environment like DBPath
+    private static final int poolSize = Util.intEnv("PoolSize", 8);
+    private static final long idleTimeoutMillis = Util.intEnv("PoolIdleTimeoutSeconds", 300) * 1000L;
+    private static final long leaseTimeoutMillis = Util.intEnv("PoolLeaseTimeoutSeconds", 30) * 1000L;
+    private static final long validateAfterMillis = Util.intEnv("PoolValidateAfterSeconds", 5) * 1000L;
+    private static final int statementCacheSize = Util.intEnv("StatementCacheSize", 32);
+    private static final int busyRetries = Util.intEnv("BusyRetries", 5);
 
-    public ConnectionManager() {
+    // StorageProfile=wal switches SQLite to write-ahead logging with the settings below, sends
+    // every transaction through a single writer thread and serves reads from a pool of read-only
+    // connections that do not wait for writers. Servers that take concurrent writers ignore it.
+    private static final boolean walProfile = dialect.singleFileWriter()
+            && "wal".equalsIgnoreCase(System.getenv("StorageProfile"));
+    private static final int readPoolSize = Util.intEnv("ReadPoolSize", poolSize);
+    private static final int busyTimeoutMillis = Util.intEnv("BusyTimeoutMillis", 5000);
+    private static final int cacheSizeKib = Util.intEnv("CacheSizeKiB", 16384);
+    private static final long mmapSizeBytes = Util.intEnv("MmapSizeMiB", 256) * 1024L * 1024L;
+    private static final int writeGroupSize = Util.intEnv("WriteGroupSize", 64);
+
+    // one per database file, see ShardRouter; shard 0 is the only one unless Shards is set
+    private static final Shard[] shards;
+
+    static {
         try {
-            Class.forName(driverName);
+            Class.forName(dialect.driverName());
         } catch (ClassNotFoundException e) {
             System.out.println(e.toString());
         }
+        shards = new Shard[ShardRouter.count()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i, dialect.connectionUrl(i));
+        }
+    }
+
+    // A database file with its own pools, writer and pinned connections
+    private static class Shard {
+        // all connections in the default profile; the writer's and pinned connections under wal
+        private final ConnectionPool pool;
+        // the same pool in the default profile; read-only connections under wal
+        private final ConnectionPool readPool;
+        // null in the default profile
+        private final SingleWriter writer;
+        // a connection a thread keeps across commands, see pinConnection()
+        private final ThreadLocal<PooledConnection> pinned = new ThreadLocal<>();
+
+        Shard(int index, String connectionUrl) {
+            // shard 0 keeps the metric names it had before there were shards
+            String suffix = index == 0 ? "" : " shard " + index;
+            if (walProfile) {
+                String busyTimeout = "PRAGMA busy_timeout = " + busyTimeoutMillis;
+                String cacheSize = "PRAGMA cache_size = -" + cacheSizeKib;
+                String mmapSize = "PRAGMA mmap_size = " + mmapSizeBytes;
+                pool = new ConnectionPool(index, connectionUrl, poolSize, idleTimeoutMillis,
+                        leaseTimeoutMillis, validateAfterMillis, statementCacheSize,
+                        "PRAGMA journal_mode = WAL", "PRAGMA synchronous = NORMAL", busyTimeout, cacheSize, mmapSize);
+                readPool = new ConnectionPool(index, connectionUrl, readPoolSize, idleTimeoutMillis,
+                        leaseTimeoutMillis, validateAfterMillis, statementCacheSize,
+                        "PRAGMA query_only = 1", busyTimeout, cacheSize, mmapSize);
+                writer = new SingleWriter(index, writeGroupSize);
+                Metrics.gauge("read pool" + suffix, () -> readPool.getStats().toString());
+            } else {
+                pool = new ConnectionPool(index, connectionUrl, poolSize, idleTimeoutMillis,
+                        leaseTimeoutMillis, validateAfterMillis, statementCacheSize);
+                readPool = pool;
+                writer = null;
+            }
+            Metrics.gauge("pool" + suffix, () -> pool.getStats().toString());
+        }
+    }
+
+    private final Shard shard;
+    private PooledConnection con = null;
+    // the pool con was leased from, or null if it is the thread's pinned connection
+    private ConnectionPool leasedFrom = null;
+
+    // A manager for shard 0, which holds everything not keyed by a date
+    public ConnectionManager() {
+        this(0);
+    }
+
+    // A manager for the shard that holds the date's appointments and availabilities
+    public ConnectionManager(Date date) {
+        this(ShardRouter.shardOf(date));
     }
 
+    public ConnectionManager(int shard) {
+        this.shard = shards[shard];
+    }
+
+    // Leases a connection from the shard's pool; it goes back to the pool on closeConnection().
+    // A thread that pinned a connection to the shard gets that one instead.
     public Connection createConnection() {
+        return createConnection(shard.pool);
+    }
+
+    // Like createConnection(), for work that only reads. Under the wal storage profile the
+    // connection is a read-only one that sees the last committed state without waiting for the
+    // writer. A thread that pinned a connection still gets that one, to see its own writes.
+    public Connection createReadConnection() {
+        return createConnection(shard.readPool);
+    }
+
+    private Connection createConnection(ConnectionPool from) {
+        PooledConnection own = shard.pinned.get();
+        if (own != null) {
+            con = own;
+            leasedFrom = null;
+            return con.getConnection();
+        }
         try {
-            con = DriverManager.getConnection(connectionUrl);
+            con = from.lease();
+            leasedFrom = from;
+            return con.getConnection();
         } catch (SQLException e) {
             e.printStackTrace();
+            return null;
         }
-        return con;
+    }
+
+    // The connection currently leased by this manager, or null if there is none
+    public Connection getConnection() {
+        return this.con == null ? null : this.con.getConnection();
     }
 
     public void closeConnection() {
+        if (this.con != null) {
+            if (this.leasedFrom != null) {
+                this.leasedFrom.release(this.con);
+            }
+            this.con = null;
+            this.leasedFrom = null;
+        }
+    }
+
+    // Makes every ConnectionManager for the shard on this thread use one connection until
+    // unpinConnection(), for long runs of commands such as a replayed script. Returns the pinned
+    // connection, which the caller may switch out of auto-commit to group several commands into
+    // one transaction.
+    public static Connection pinConnection(int shard) throws SQLException {
+        Shard s = shards[shard];
+        PooledConnection own = s.pinned.get();
+        if (own == null) {
+            own = s.pool.lease();
+            s.pinned.set(own);
+        }
+        return own.getConnection();
+    }
+
+    // Returns the pinned connection to the pool; a transaction still open on it is rolled back
+    public static void unpinConnection(int shard) {
+        Shard s = shards[shard];
+        PooledConnection own = s.pinned.get();
+        if (own != null) {
+            s.pinned.remove();
+            s.pool.release(own);
+        }
+    }
+
+    // Whether this thread has pinned a connection to any shard
+    static boolean isPinned() {
+        for (Shard s : shards) {
+            if (s.pinned.get() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns the leased connection's cached statement for this SQL, preparing it on first use.
+    // The statement stays owned by the cache, so callers must not close it.
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        if (this.con == null) {
+            throw new SQLException("No connection has been created");
+        }
+        return this.con.getStatementCache().prepare(sql);
+    }
+
+    // Work that runs inside a single transaction; E is any domain exception it may throw
+    public interface Transaction<T, E extends Exception> {
+        T run(ConnectionManager cm) throws SQLException, E;
+    }
+
+    // Runs work in one transaction on a pooled connection. Any exception rolls the transaction
+    // back; if the database reports it busy (see isBusy) the whole transaction is retried, with
+    // backoff, up to BusyRetries times. On a pinned connection that already has a transaction open, the
+    // work runs inside a savepoint of that transaction instead. Under the wal storage profile the
+    // work is handed to the shard's writer thread, unless the thread has pinned a connection.
+    // This runs on shard 0, which holds everything not keyed by a date.
+    public static <T, E extends Exception> T runInTransaction(Transaction<T, E> work) throws SQLException, E {
+        return runInTransaction(0, work);
+    }
+
+    // Like runInTransaction(work), on the shard that holds the date's appointments and
+    // availabilities
+    public static <T, E extends Exception> T runInTransaction(Date date, Transaction<T, E> work)
+            throws SQLException, E {
+        return runInTransaction(ShardRouter.shardOf(date), work);
+    }
+
+    public static <T, E extends Exception> T runInTransaction(int shard, Transaction<T, E> work)
+            throws SQLException, E {
+        Shard s = shards[shard];
+        if (s.writer != null && s.pinned.get() == null) {
+            return s.writer.submit(work);
+        }
+        for (int attempt = 0; ; attempt++) {
+            ConnectionManager cm = new ConnectionManager(shard);
+            Connection con = cm.createConnection();
+            if (con == null) {
+                throw new SQLException("Could not obtain a database connection");
+            }
+            if (!con.getAutoCommit()) {
+                return runInSavepoint(cm, con, work);
+            }
+            try {
+                con.setAutoCommit(false);
+                T result = work.run(cm);
+                con.commit();
+                return result;
+            } catch (SQLException e) {
+                rollbackQuietly(con);
+                if (!isBusy(e) || attempt >= busyRetries) {
+                    throw e;
+                }
+            } catch (Exception e) {
+                rollbackQuietly(con);
+                throw e;
+            } finally {
+                cm.closeConnection();
+            }
+            backoff(attempt);
+        }
+    }
+
+    private static <T, E extends Exception> T runInSavepoint(ConnectionManager cm, Connection con,
+                                                             Transaction<T, E> work) throws SQLException, E {
+        Savepoint savepoint = con.setSavepoint();
         try {
-            this.con.close();
+            T result = work.run(cm);
+            con.releaseSavepoint(savepoint);
+            return result;
+        } catch (Exception e) {
+            con.rollback(savepoint);
+            throw e;
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // Whether the transaction lost out to a concurrent one and is worth retrying: SQLITE_BUSY under
+    // SQLite, a serialization failure or deadlock under PostgreSQL
+    public static boolean isBusy(SQLException e) {
+        return dialect.isRetryable(e);
+    }
+
+    private static void rollbackQuietly(Connection con) {
+        try {
+            con.rollback();
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
+
+    // Exponential backoff with jitter so retrying writers do not collide again in lockstep
+    private static void backoff(int attempt) throws SQLException {
+        long ceiling = Math.min(500, 10L << attempt);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while retrying a busy transaction");
+        }
+    }
+
+    public static ConnectionPool.Stats getPoolStats() {
+        return shards[0].pool.getStats();
+    }
 }
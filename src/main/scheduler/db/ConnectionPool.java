@@ -0,0 +1,290 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of JDBC connections. Connections are leased with {@link #lease()} and handed
+ * back with {@link #release(PooledConnection)}; at most {@code maxSize} are open at a time.
+ * Idle connections are validated before reuse and closed once they sit unused for too long.
+ * Every new connection first runs the pool's setup statements, such as the PRAGMAs of the
+ * storage profile.
+ */
+public class ConnectionPool {
+
+    private final int shard;
+    private final String connectionUrl;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long leaseTimeoutMillis;
+    private final long validateAfterMillis;
+    private final int statementCacheSize;
+    private final String[] setupStatements;
+
+    private final Semaphore permits;
+    // most recently returned connection first, so the warm ones get reused
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final ScheduledExecutorService evictor;
+
+    // statistics
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong leases = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong statementHits = new AtomicLong();
+    private final AtomicLong statementMisses = new AtomicLong();
+
+    // shard is the database the URL points to (see ShardRouter), recorded on slow statements
+    public ConnectionPool(int shard, String connectionUrl, int maxSize, long idleTimeoutMillis,
+                          long leaseTimeoutMillis, long validateAfterMillis, int statementCacheSize,
+                          String... setupStatements) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive!");
+        }
+        this.shard = shard;
+        this.connectionUrl = connectionUrl;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+        this.validateAfterMillis = validateAfterMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.setupStatements = setupStatements.clone();
+        this.permits = new Semaphore(maxSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "connection-pool-evictor");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        this.evictor.scheduleAtFixedRate(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public PooledConnection lease() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(leaseTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLException("Timed out waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection");
+        }
+        recordWait(System.nanoTime() - start);
+
+        try {
+            PooledConnection pc = takeIdle();
+            if (pc == null) {
+                pc = open();
+                opened.incrementAndGet();
+            }
+            active.incrementAndGet();
+            leases.incrementAndGet();
+            return pc;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public void release(PooledConnection pc) {
+        if (pc == null) {
+            return;
+        }
+        active.decrementAndGet();
+        try {
+            if (reset(pc)) {
+                pc.touch();
+                synchronized (idle) {
+                    idle.addFirst(pc);
+                }
+            } else {
+                discard(pc);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        Connection con = DriverManager.getConnection(connectionUrl);
+        try (Statement statement = con.createStatement()) {
+            for (String sql : setupStatements) {
+                statement.execute(sql);
+            }
+        } catch (SQLException e) {
+            con.close();
+            throw e;
+        }
+        return new PooledConnection(con,
+                new StatementCache(con, shard, statementCacheSize, statementHits, statementMisses));
+    }
+
+    // Returns the first idle connection that is still healthy, closing any that are not
+    private PooledConnection takeIdle() {
+        while (true) {
+            PooledConnection pc;
+            synchronized (idle) {
+                pc = idle.pollFirst();
+            }
+            if (pc == null) {
+                return null;
+            }
+            long idleFor = pc.idleMillis();
+            if (idleFor > idleTimeoutMillis) {
+                discard(pc);
+                evicted.incrementAndGet();
+                continue;
+            }
+            if (idleFor > validateAfterMillis && !isHealthy(pc)) {
+                discard(pc);
+                continue;
+            }
+            return pc;
+        }
+    }
+
+    private boolean isHealthy(PooledConnection pc) {
+        try {
+            return pc.getConnection().isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Puts the connection back into a clean state for the next lease
+    private boolean reset(PooledConnection pc) {
+        try {
+            Connection con = pc.getConnection();
+            if (con.isClosed()) {
+                return false;
+            }
+            if (!con.getAutoCommit()) {
+                con.rollback();
+                con.setAutoCommit(true);
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledConnection pc) {
+        try {
+            pc.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void evictIdle() {
+        synchronized (idle) {
+            Iterator<PooledConnection> it = idle.iterator();
+            while (it.hasNext()) {
+                PooledConnection pc = it.next();
+                if (pc.idleMillis() > idleTimeoutMillis) {
+                    it.remove();
+                    discard(pc);
+                    evicted.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void recordWait(long nanos) {
+        totalWaitNanos.addAndGet(nanos);
+        long max;
+        do {
+            max = maxWaitNanos.get();
+        } while (nanos > max && !maxWaitNanos.compareAndSet(max, nanos));
+    }
+
+    public Stats getStats() {
+        int idleCount;
+        synchronized (idle) {
+            idleCount = idle.size();
+        }
+        return new Stats(maxSize, active.get(), idleCount, leases.get(), opened.get(), evicted.get(),
+                timeouts.get(), totalWaitNanos.get(), maxWaitNanos.get(),
+                statementHits.get(), statementMisses.get());
+    }
+
+    public static class Stats {
+        private final int maxSize;
+        private final int active;
+        private final int idle;
+        private final long leases;
+        private final long opened;
+        private final long evicted;
+        private final long timeouts;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+        private final long statementHits;
+        private final long statementMisses;
+
+        private Stats(int maxSize, int active, int idle, long leases, long opened, long evicted,
+                      long timeouts, long totalWaitNanos, long maxWaitNanos,
+                      long statementHits, long statementMisses) {
+            this.maxSize = maxSize;
+            this.active = active;
+            this.idle = idle;
+            this.leases = leases;
+            this.opened = opened;
+            this.evicted = evicted;
+            this.timeouts = timeouts;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.statementHits = statementHits;
+            this.statementMisses = statementMisses;
+        }
+
+        // Getters
+        public int getMaxSize() { return maxSize; }
+        public int getActive() { return active; }
+        public int getIdle() { return idle; }
+        public long getLeases() { return leases; }
+        public long getOpened() { return opened; }
+        public long getEvicted() { return evicted; }
+        public long getTimeouts() { return timeouts; }
+        public long getTotalWaitNanos() { return totalWaitNanos; }
+        public long getMaxWaitNanos() { return maxWaitNanos; }
+        public long getStatementHits() { return statementHits; }
+        public long getStatementMisses() { return statementMisses; }
+
+        public double getAverageWaitMillis() {
+            return leases == 0 ? 0 : totalWaitNanos / 1e6 / leases;
+        }
+
+        @Override
+        public String toString() {
+            return "Pool{" +
+                    "maxSize=" + maxSize +
+                    ", active=" + active +
+                    ", idle=" + idle +
+                    ", leases=" + leases +
+                    ", opened=" + opened +
+                    ", evicted=" + evicted +
+                    ", timeouts=" + timeouts +
+                    ", avgWaitMs=" + String.format("%.3f", getAverageWaitMillis()) +
+                    ", maxWaitMs=" + String.format("%.3f", maxWaitNanos / 1e6) +
+                    ", statementHits=" + statementHits +
+                    ", statementMisses=" + statementMisses +
+                    '}';
+        }
+    }
+}
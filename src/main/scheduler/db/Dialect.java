@@ -0,0 +1,222 @@
+package scheduler.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The parts of talking to the database that differ between the engines the scheduler runs on.
+ * Everything else is written in SQL both engines accept (upserts are spelled
+ * {@code INSERT ... ON CONFLICT}, never {@code INSERT OR IGNORE}), so the model classes and
+ * commands only ask the dialect where the engines really disagree: connecting, deciding which
+ * failures are worth retrying, keeping the schema version, explaining queries and locking rows.
+ *
+ * The dialect is chosen per deployment with the DBDialect setting: sqlite (the default, a local
+ * database file at DBPath) or postgresql (a PostgreSQL or Aurora PostgreSQL server at DBUrl,
+ * created from aurora-create.sql).
+ */
+public abstract class Dialect {
+    private static final Dialect instance = forName(System.getenv("DBDialect"));
+
+    public static Dialect getInstance() {
+        return instance;
+    }
+
+    static Dialect forName(String name) {
+        if (name == null || name.isEmpty() || name.equalsIgnoreCase("sqlite")) {
+            return new Sqlite();
+        }
+        switch (name.toLowerCase()) {
+            case "postgresql":
+            case "postgres":
+            case "aurora":
+                return new Postgres();
+            default:
+                System.out.println("Ignoring unknown DBDialect: " + name);
+                return new Sqlite();
+        }
+    }
+
+    public abstract String getName();
+
+    public abstract String driverName();
+
+    // The URL of the shard's database, see ShardRouter
+    public abstract String connectionUrl(int shard);
+
+    // Whether the database is a single file that one connection at a time may write, which is
+    // what the wal storage profile and its single writer are for
+    public abstract boolean singleFileWriter();
+
+    // Whether a transaction that failed with e may succeed if it is run again from the start
+    public abstract boolean isRetryable(SQLException e);
+
+    // Whether SchemaMigrator's migrations, written for SQLite, can bring this database up to date
+    public abstract boolean appliesMigrations();
+
+    public abstract int readSchemaVersion(ConnectionManager cm) throws SQLException;
+
+    public abstract String writeSchemaVersion(int version);
+
+    // Put in front of a query to have the engine describe how it would run it
+    public abstract String explainPrefix();
+
+    // The plan step on the current row of an explain result
+    public abstract String planStep(ResultSet rs) throws SQLException;
+
+    // Whether a plan step reads a whole table or sorts rows
+    public abstract boolean isCostly(String planStep);
+
+    // Appended to a SELECT to lock the rows it returns, skipping rows another transaction has
+    // locked instead of waiting for them; null if the engine cannot lock single rows
+    public abstract String skipLockedClause();
+
+    static class Sqlite extends Dialect {
+        // SQLite primary result codes for a database held by another connection
+        private static final int SQLITE_BUSY = 5;
+        private static final int SQLITE_LOCKED = 6;
+
+        @Override
+        public String getName() {
+            return "sqlite";
+        }
+
+        @Override
+        public String driverName() {
+            return "org.sqlite.JDBC";
+        }
+
+        @Override
+        public String connectionUrl(int shard) {
+            // shard N > 0 lives next to the main file, at DBPath.N
+            String path = System.getenv("DBPath");
+            return "jdbc:sqlite:" + (shard == 0 ? path : path + "." + shard);
+        }
+
+        @Override
+        public boolean singleFileWriter() {
+            return true;
+        }
+
+        @Override
+        public boolean isRetryable(SQLException e) {
+            int code = e.getErrorCode() & 0xff;
+            if (code == SQLITE_BUSY || code == SQLITE_LOCKED) {
+                return true;
+            }
+            String message = e.getMessage();
+            return message != null && (message.contains("SQLITE_BUSY") || message.contains("SQLITE_LOCKED"));
+        }
+
+        @Override
+        public boolean appliesMigrations() {
+            return true;
+        }
+
+        @Override
+        public int readSchemaVersion(ConnectionManager cm) throws SQLException {
+            try (Statement statement = cm.getConnection().createStatement();
+                 ResultSet rs = statement.executeQuery("PRAGMA user_version")) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+
+        @Override
+        public String writeSchemaVersion(int version) {
+            return "PRAGMA user_version = " + version;
+        }
+
+        @Override
+        public String explainPrefix() {
+            return "EXPLAIN QUERY PLAN ";
+        }
+
+        @Override
+        public String planStep(ResultSet rs) throws SQLException {
+            return rs.getString("detail");
+        }
+
+        @Override
+        public boolean isCostly(String planStep) {
+            return planStep.startsWith("SCAN") || planStep.contains("TEMP B-TREE");
+        }
+
+        @Override
+        public String skipLockedClause() {
+            // a writer locks the whole database, so there is nothing to skip
+            return null;
+        }
+    }
+
+    static class Postgres extends Dialect {
+        // SQLSTATEs of transactions the server aborted in favour of a concurrent one
+        private static final String SERIALIZATION_FAILURE = "40001";
+        private static final String DEADLOCK_DETECTED = "40P01";
+
+        @Override
+        public String getName() {
+            return "postgresql";
+        }
+
+        @Override
+        public String driverName() {
+            return "org.postgresql.Driver";
+        }
+
+        @Override
+        public String connectionUrl(int shard) {
+            // shard N > 0 is at DBUrlN
+            return System.getenv(shard == 0 ? "DBUrl" : "DBUrl" + shard);
+        }
+
+        @Override
+        public boolean singleFileWriter() {
+            return false;
+        }
+
+        @Override
+        public boolean isRetryable(SQLException e) {
+            return SERIALIZATION_FAILURE.equals(e.getSQLState()) || DEADLOCK_DETECTED.equals(e.getSQLState());
+        }
+
+        @Override
+        public boolean appliesMigrations() {
+            return false;
+        }
+
+        @Override
+        public int readSchemaVersion(ConnectionManager cm) throws SQLException {
+            try (Statement statement = cm.getConnection().createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT Version FROM SchemaVersion")) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+
+        @Override
+        public String writeSchemaVersion(int version) {
+            return "UPDATE SchemaVersion SET Version = " + version;
+        }
+
+        @Override
+        public String explainPrefix() {
+            return "EXPLAIN ";
+        }
+
+        @Override
+        public String planStep(ResultSet rs) throws SQLException {
+            return rs.getString(1).trim();
+        }
+
+        @Override
+        public boolean isCostly(String planStep) {
+            String step = planStep.startsWith("->") ? planStep.substring(2).trim() : planStep;
+            return step.startsWith("Seq Scan")
+                    || (step.startsWith("Sort") && !step.startsWith("Sort Key") && !step.startsWith("Sort Method"));
+        }
+
+        @Override
+        public String skipLockedClause() {
+            return "FOR UPDATE SKIP LOCKED";
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package scheduler.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Hands out increasing IDs for a table from memory. IDs are leased from the Sequences table in
+ * blocks of {@code blockSize}; leasing a block is one short transaction, so several scheduler
+ * processes sharing the database never receive the same ID. IDs of a block that is not used up
+ * (for example when the process exits) are skipped, never reused.
+ *
+ * Do not call {@link #nextId()} while holding an open write transaction: leasing a block needs a
+ * write transaction of its own. The one exception is a pinned connection (see
+ * {@link ConnectionManager#pinConnection}), where the lease joins the pinned transaction, as it
+ * must with SQLite since that transaction holds the database's only write lock. Whoever rolls
+ * such a transaction back has to call {@link #invalidateAll()}, or the rolled back block would
+ * be handed out again, here and to other processes.
+ */
+public class IdAllocator {
+    private static final List<IdAllocator> allocators = new CopyOnWriteArrayList<>();
+
+    private final String sequenceName;
+    private final String maxQuery;
+    private final int blockSize;
+
+    private long next = 0;
+    private long limit = 0;
+    // whether the sequence is known to exist, so the existing rows need not be read again
+    private boolean seeded = false;
+
+    // table and column are trusted identifiers, used to seed the sequence from existing rows
+    public IdAllocator(String sequenceName, String table, String column, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive!");
+        }
+        this.sequenceName = sequenceName;
+        this.maxQuery = "SELECT COALESCE(MAX(" + column + "), 0) FROM " + table;
+        this.blockSize = blockSize;
+        allocators.add(this);
+    }
+
+    // Forgets the blocks every allocator holds, so that the next ID comes from a new lease
+    public static void invalidateAll() {
+        for (IdAllocator allocator : allocators) {
+            allocator.invalidate();
+        }
+    }
+
+    private synchronized void invalidate() {
+        next = 0;
+        limit = 0;
+        // a rolled back transaction may have created the sequence
+        seeded = false;
+    }
+
+    public synchronized long nextId() throws SQLException {
+        if (next >= limit) {
+            leaseBlock();
+        }
+        return next++;
+    }
+
+    private void leaseBlock() throws SQLException {
+        // the Sequences table is on shard 0, but the rows it numbers may be on any shard
+        long first = seeded ? 0 : highestExisting() + 1;
+        long end = ConnectionManager.runInTransaction(cm -> {
+            if (!seeded) {
+                PreparedStatement seedStmt = cm.prepareStatement(
+                        "INSERT INTO Sequences(Name, NextValue) VALUES (?, ?) ON CONFLICT(Name) DO NOTHING");
+                seedStmt.setString(1, sequenceName);
+                seedStmt.setLong(2, first);
+                seedStmt.executeUpdate();
+            }
+
+            PreparedStatement bumpStmt = cm.prepareStatement(
+                    "UPDATE Sequences SET NextValue = NextValue + ? WHERE Name = ?");
+            bumpStmt.setInt(1, blockSize);
+            bumpStmt.setString(2, sequenceName);
+            bumpStmt.executeUpdate();
+
+            PreparedStatement readStmt = cm.prepareStatement(
+                    "SELECT NextValue FROM Sequences WHERE Name = ?");
+            readStmt.setString(1, sequenceName);
+            try (ResultSet rs = readStmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Sequence " + sequenceName + " is missing");
+                }
+                return rs.getLong("NextValue");
+            }
+        });
+        this.next = end - blockSize;
+        this.limit = end;
+        this.seeded = true;
+    }
+
+    // The highest ID in the table over every shard, for starting a sequence that does not exist
+    // yet after the rows already there
+    private long highestExisting() throws SQLException {
+        long highest = 0;
+        for (long max : ShardRouter.forEachShard(shard -> {
+            ConnectionManager cm = new ConnectionManager(shard);
+            cm.createReadConnection();
+            try {
+                PreparedStatement statement = cm.prepareStatement(maxQuery);
+                try (ResultSet rs = statement.executeQuery()) {
+                    rs.next();
+                    return rs.getLong(1);
+                }
+            } finally {
+                cm.closeConnection();
+            }
+        })) {
+            highest = Math.max(highest, max);
+        }
+        return highest;
+    }
+}
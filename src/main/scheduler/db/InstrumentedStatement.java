@@ -0,0 +1,103 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.util.Arrays;
+
+/**
+ * Wraps a cached prepared statement so that every execute call is timed under the statement's
+ * SQL text, and executions slower than the slow-query threshold are handed to
+ * {@link SlowQueryLog} with the values that were bound. All other calls go straight through to
+ * the driver's statement.
+ */
+class InstrumentedStatement implements InvocationHandler {
+    private final PreparedStatement target;
+    private final String sql;
+    // the database the statement runs on, so that a slow one is explained there
+    private final int shard;
+    private final Metrics.Timer timer;
+
+    // values passed to the setXxx(index, value) methods since the last clearParameters()
+    private Object[] binds = new Object[0];
+
+    private InstrumentedStatement(PreparedStatement target, String sql, int shard) {
+        this.target = target;
+        this.sql = sql;
+        this.shard = shard;
+        this.timer = Metrics.timer("sql \"" + sql + "\"");
+    }
+
+    static PreparedStatement wrap(PreparedStatement target, String sql, int shard) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new InstrumentedStatement(target, sql, shard));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (!name.startsWith("execute")) {
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                bind((Integer) args[0], args[1]);
+            } else if (name.equals("clearParameters")) {
+                binds = new Object[0];
+            }
+            return call(method, args);
+        }
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = call(method, args);
+        } catch (Throwable t) {
+            long elapsed = System.nanoTime() - start;
+            timer.recordError(elapsed);
+            if (SlowQueryLog.isSlow(elapsed)) {
+                SlowQueryLog.submit(shard, sql, binds.clone(), "failed", elapsed);
+            }
+            throw t;
+        }
+        long elapsed = System.nanoTime() - start;
+        timer.record(elapsed);
+        if (SlowQueryLog.isSlow(elapsed)) {
+            SlowQueryLog.submit(shard, sql, binds.clone(), rows(result), elapsed);
+        }
+        return result;
+    }
+
+    private void bind(int index, Object value) {
+        if (index < 1) {
+            return;
+        }
+        if (index > binds.length) {
+            binds = Arrays.copyOf(binds, index);
+        }
+        binds[index - 1] = value;
+    }
+
+    // Rows changed by an update or batch; a query's row count is not known until it is read
+    private static String rows(Object result) {
+        if (result instanceof Integer || result instanceof Long) {
+            return result.toString();
+        }
+        if (result instanceof int[]) {
+            long total = 0;
+            for (int count : (int[]) result) {
+                total += Math.max(0, count);
+            }
+            return Long.toString(total);
+        }
+        return "n/a";
+    }
+
+    private Object call(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
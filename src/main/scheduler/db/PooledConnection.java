@@ -0,0 +1,40 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A physical connection owned by a {@link ConnectionPool}, along with its bookkeeping.
+ */
+public class PooledConnection {
+    private final Connection con;
+    private final StatementCache statementCache;
+    private volatile long lastUsed;
+
+    PooledConnection(Connection con, StatementCache statementCache) {
+        this.con = con;
+        this.statementCache = statementCache;
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    public Connection getConnection() {
+        return con;
+    }
+
+    public StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    long idleMillis() {
+        return System.currentTimeMillis() - lastUsed;
+    }
+
+    void close() throws SQLException {
+        statementCache.closeAll();
+        con.close();
+    }
+}
@@ -0,0 +1,234 @@
+package scheduler.db;
+
+import scheduler.availability.Slots;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Brings the database schema up to date. The version of the schema is kept in SQLite's
+ * {@code user_version} pragma: a database freshly created from create.sql is version 0, and
+ * migration N moves it from version N - 1 to N. Each migration runs in its own transaction
+ * together with the version bump, so a failed or concurrent upgrade is never half applied.
+ *
+ * The migrations are written for SQLite. A PostgreSQL database is created at the latest version
+ * by aurora-create.sql, which keeps its version in the SchemaVersion table, and a change to the
+ * schema is added to both.
+ */
+public class SchemaMigrator {
+
+    // MIGRATIONS[i] upgrades the schema from version i to version i + 1; only ever append here
+    private static final String[][] MIGRATIONS = {
+            // 1: sequences for block ID allocation, covering indexes for show_appointments and a
+            //    clustered (WITHOUT ROWID) Availabilities keyed by (Time, Username)
+            {
+                    "CREATE TABLE IF NOT EXISTS Sequences (Name varchar(255), NextValue INTEGER, PRIMARY KEY (Name))",
+                    "CREATE INDEX IF NOT EXISTS AppointmentsByPatient "
+                            + "ON Appointments(PatientName, AppointmentID, VaccineName, Date, CaregiverName)",
+                    "CREATE INDEX IF NOT EXISTS AppointmentsByCaregiver "
+                            + "ON Appointments(CaregiverName, AppointmentID, VaccineName, Date, PatientName)",
+                    "CREATE TABLE Availabilities_new (Time date, Username varchar(255) REFERENCES Caregivers, "
+                            + "PRIMARY KEY (Time, Username)) WITHOUT ROWID",
+                    "INSERT OR IGNORE INTO Availabilities_new (Time, Username) SELECT Time, Username FROM Availabilities",
+                    "DROP TABLE Availabilities",
+                    "ALTER TABLE Availabilities_new RENAME TO Availabilities",
+            },
+            // 2: time slots. A row now carries bitmasks of the slots offered and booked that day;
+            //    existing rows offer the whole day of the layout the migration runs with (which
+            //    migrate() then records, see checkLayout), and the 09:00 appointments booked
+            //    before slots existed take the first slot
+            {
+                    "ALTER TABLE Availabilities ADD COLUMN Slots INTEGER NOT NULL DEFAULT " + Slots.ALL,
+                    "ALTER TABLE Availabilities ADD COLUMN Booked INTEGER NOT NULL DEFAULT 0",
+                    "INSERT OR IGNORE INTO Availabilities (Time, Username, Slots, Booked) "
+                            + "SELECT DISTINCT Date, CaregiverName, 1, 1 FROM Appointments",
+                    "UPDATE Availabilities SET Slots = Slots | 1, Booked = Booked | 1 WHERE EXISTS "
+                            + "(SELECT 1 FROM Appointments WHERE CaregiverName = Availabilities.Username "
+                            + "AND Date = Availabilities.Time)",
+            },
+            // 3: holds on a slot and a dose that expire unless confirmed
+            {
+                    "CREATE TABLE Holds (HoldID INTEGER PRIMARY KEY, "
+                            + "PatientName varchar(255) REFERENCES Patients(Username), "
+                            + "CaregiverName varchar(255) REFERENCES Caregivers(Username), "
+                            + "VaccineName varchar(255) REFERENCES Vaccines(Name), "
+                            + "Date date, Time TEXT, Expires INTEGER)",
+            },
+            // 4: the waitlist, served in EntryID order per date and per vaccine
+            {
+                    "CREATE TABLE Waitlist (EntryID INTEGER PRIMARY KEY, "
+                            + "PatientName varchar(255) REFERENCES Patients(Username), "
+                            + "VaccineName varchar(255) REFERENCES Vaccines(Name), "
+                            + "Date date, Status TEXT, AppointmentID INTEGER)",
+                    "CREATE INDEX WaitlistByDate ON Waitlist(Status, Date, EntryID)",
+                    "CREATE INDEX WaitlistByVaccine ON Waitlist(Status, VaccineName, EntryID)",
+                    "CREATE INDEX WaitlistByPatient ON Waitlist(PatientName, EntryID)",
+            },
+            // 5: settings the stored data depends on, such as the slot layout behind the Slots and
+            //    Booked bitmasks (see checkLayout)
+            {
+                    "CREATE TABLE Settings (Name varchar(255), Value TEXT, PRIMARY KEY (Name))",
+            },
+    };
+
+    // The statements on the hot command paths; none of them may need a full scan or a sort
+    private static final String[] HOT_QUERIES = {
+            "UPDATE Availabilities SET Booked = Booked | ? WHERE Time = ? AND Username = ? AND (Slots & ~Booked & ?) <> 0",
+            "SELECT Slots & ~Booked AS Free FROM Availabilities WHERE Time = ? AND Username = ?",
+            "SELECT PatientName, CaregiverName, VaccineName, Date, Time FROM Appointments WHERE AppointmentID = ?",
+            "DELETE FROM Appointments WHERE AppointmentID = ?",
+            "UPDATE Vaccines SET Doses = Doses - ? WHERE Name = ? AND Doses >= ?",
+            "SELECT AppointmentID, VaccineName, Date, PatientName FROM Appointments WHERE CaregiverName = ? "
+                    + "AND AppointmentID > ? AND Date >= ? AND Date <= ? ORDER BY AppointmentID ASC LIMIT ?",
+            "SELECT AppointmentID, VaccineName, Date, CaregiverName FROM Appointments WHERE PatientName = ? "
+                    + "AND AppointmentID > ? AND Date >= ? AND Date <= ? ORDER BY AppointmentID ASC LIMIT ?",
+            "SELECT PatientName, CaregiverName, VaccineName, Date, Time, Expires FROM Holds WHERE HoldID = ?",
+            "DELETE FROM Holds WHERE HoldID = ?",
+            "SELECT EntryID, PatientName, VaccineName, Date FROM Waitlist WHERE Status = 'waiting' AND Date = ? ORDER BY EntryID LIMIT 100",
+            "SELECT EntryID, PatientName, VaccineName, Date FROM Waitlist WHERE Status = 'waiting' AND VaccineName = ? ORDER BY EntryID LIMIT 100",
+            "SELECT Salt, Hash FROM Patients WHERE Username = ?",
+            "SELECT Salt, Hash FROM Caregivers WHERE Username = ?",
+    };
+
+    public static int latestVersion() {
+        return MIGRATIONS.length;
+    }
+
+    // Applies every migration the database has not seen yet, on every shard, and returns the
+    // resulting version. Fails if the database was set up with a different slot layout or
+    // number of shards.
+    public static int migrate() throws SQLException {
+        int version = MIGRATIONS.length;
+        for (int shard = 0; shard < ShardRouter.count(); shard++) {
+            version = Math.min(version, migrate(shard));
+            checkLayout(shard);
+        }
+        return version;
+    }
+
+    // Bit i of a stored Slots or Booked mask means the i-th slot of the layout it was written
+    // with, so SlotsPerDay and SlotMinutes must not change once a database is in use; and a
+    // date's rows are only looked for on the shard ShardRouter sends the date to, so neither must
+    // Shards. The first run records all three in Settings; a later run with other values is
+    // refused rather than reading every mask as different times of day or missing every row
+    // that is now on another shard.
+    private static void checkLayout(int shard) throws SQLException {
+        String[] stored = ConnectionManager.runInTransaction(shard, cm -> {
+            PreparedStatement record = cm.prepareStatement(
+                    "INSERT INTO Settings (Name, Value) VALUES (?, ?) ON CONFLICT(Name) DO NOTHING");
+            record.setString(1, "SlotsPerDay");
+            record.setString(2, Integer.toString(Slots.PER_DAY));
+            record.executeUpdate();
+            record.setString(1, "SlotMinutes");
+            record.setString(2, Integer.toString(Slots.MINUTES));
+            record.executeUpdate();
+            record.setString(1, "Shards");
+            record.setString(2, Integer.toString(ShardRouter.count()));
+            record.executeUpdate();
+            return new String[]{
+                    setting(cm, "SlotsPerDay") + " slots of " + setting(cm, "SlotMinutes") + " minutes",
+                    setting(cm, "Shards")};
+        });
+        String configured = Slots.PER_DAY + " slots of " + Slots.MINUTES + " minutes";
+        if (!stored[0].equals(configured)) {
+            throw new SQLException("The database's availability is stored as " + stored[0]
+                    + " a day, but SlotsPerDay and SlotMinutes ask for " + configured
+                    + "; set them back to match the database");
+        }
+        if (!stored[1].equals(Integer.toString(ShardRouter.count()))) {
+            throw new SQLException("The database is spread over " + stored[1] + " shards, but Shards asks for "
+                    + ShardRouter.count() + "; set it back to match the database");
+        }
+    }
+
+    private static String setting(ConnectionManager cm, String name) throws SQLException {
+        PreparedStatement statement = cm.prepareStatement("SELECT Value FROM Settings WHERE Name = ?");
+        statement.setString(1, name);
+        try (ResultSet rs = statement.executeQuery()) {
+            return rs.next() ? rs.getString("Value") : null;
+        }
+    }
+
+    private static int migrate(int shard) throws SQLException {
+        int version = currentVersion(shard);
+        if (version < MIGRATIONS.length && !Dialect.getInstance().appliesMigrations()) {
+            throw new SQLException("Schema version " + version + " is older than " + MIGRATIONS.length
+                    + "; recreate the database from aurora-create.sql");
+        }
+        while (version < MIGRATIONS.length) {
+            final int from = version;
+            version = ConnectionManager.runInTransaction(shard, cm -> {
+                // re-read inside the transaction in case another process migrated meanwhile
+                int current = readVersion(cm);
+                if (current != from) {
+                    return current;
+                }
+                for (String sql : MIGRATIONS[from]) {
+                    execute(cm, sql);
+                }
+                execute(cm, Dialect.getInstance().writeSchemaVersion(from + 1));
+                return from + 1;
+            });
+        }
+        return version;
+    }
+
+    public static int currentVersion() throws SQLException {
+        return currentVersion(0);
+    }
+
+    private static int currentVersion(int shard) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(shard);
+        cm.createReadConnection();
+        try {
+            return readVersion(cm);
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    private static int readVersion(ConnectionManager cm) throws SQLException {
+        return Dialect.getInstance().readSchemaVersion(cm);
+    }
+
+    // DDL is run once, so it bypasses the statement cache
+    private static void execute(ConnectionManager cm, String sql) throws SQLException {
+        try (Statement statement = cm.getConnection().createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    // Has the database explain every hot query and returns a description of each step that
+    // scans a whole table or sorts; an empty list means all is well
+    public static List<String> checkQueryPlans() throws SQLException {
+        List<String> problems = new ArrayList<>();
+        Dialect dialect = Dialect.getInstance();
+        ConnectionManager cm = new ConnectionManager();
+        cm.createReadConnection();
+        try {
+            for (String query : HOT_QUERIES) {
+                try (PreparedStatement explain = cm.getConnection().prepareStatement(dialect.explainPrefix() + query)) {
+                    int parameters = explain.getParameterMetaData().getParameterCount();
+                    for (int i = 1; i <= parameters; i++) {
+                        explain.setObject(i, null);
+                    }
+                    try (ResultSet rs = explain.executeQuery()) {
+                        while (rs.next()) {
+                            String detail = dialect.planStep(rs);
+                            if (dialect.isCostly(detail)) {
+                                problems.add(query + " -> " + detail);
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return problems;
+    }
+}
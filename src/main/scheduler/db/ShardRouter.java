@@ -0,0 +1,100 @@
+package scheduler.db;
+
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads the tables keyed by a date (Availabilities, Appointments, Holds and Waitlist) over
+ * Shards database files, each with its own connection pools and, under the wal storage profile,
+ * its own writer, so bookings for different months do not queue behind one another. Month m,
+ * counted from the year 0, is kept by shard m mod Shards: consecutive months land on different
+ * shards, so the few busy months of a booking window spread over all of them. Shard 0 is also
+ * home to everything that is not keyed by a date: patients, caregivers, vaccines and the ID
+ * sequences.
+ *
+ * Work keyed by a date runs on that date's shard only. Work that is not, such as listing a
+ * patient's appointments, runs on every shard at once through {@link #forEachShard}.
+ */
+public class ShardRouter {
+    private static final int shards = Math.max(1, Util.intEnv("Shards", 1));
+
+    private static final ExecutorService fanOut = shards == 1 ? null : createFanOutPool();
+
+    // Work that runs against one shard
+    public interface ShardWork<T> {
+        T run(int shard) throws SQLException;
+    }
+
+    public static int count() {
+        return shards;
+    }
+
+    public static int shardOf(Date date) {
+        if (shards == 1) {
+            return 0;
+        }
+        LocalDate day = date.toLocalDate();
+        return Math.floorMod(day.getYear() * 12 + day.getMonthValue() - 1, shards);
+    }
+
+    // Runs the work on every shard in parallel and returns the results in shard order. A thread
+    // with pinned connections runs it on each shard in turn instead, since only that thread can
+    // see what its open transactions wrote.
+    public static <T> List<T> forEachShard(ShardWork<T> work) throws SQLException {
+        if (shards == 1) {
+            return Collections.singletonList(work.run(0));
+        }
+        List<T> results = new ArrayList<>(shards);
+        if (ConnectionManager.isPinned()) {
+            for (int shard = 0; shard < shards; shard++) {
+                results.add(work.run(shard));
+            }
+            return results;
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            final int s = shard;
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return work.run(s);
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }, fanOut));
+        }
+        for (CompletableFuture<T> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    private static ExecutorService createFanOutPool() {
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(shards, r -> {
+            Thread t = new Thread(r, "shard-fan-out-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
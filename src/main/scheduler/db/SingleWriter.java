@@ -0,0 +1,140 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The one thread that writes to a shard's database file under the wal storage profile. Transactions
+ * submitted from other threads queue up here; the thread takes every transaction that is
+ * waiting, up to maxGroup of them, runs each in a savepoint of a single transaction on its own
+ * pinned connection and commits them together, so a burst of writers pays for one commit instead
+ * of one each and never contends for SQLite's write lock. A transaction that fails only rolls
+ * back its own savepoint. Its submitter waits until the group is committed, so a transaction
+ * that returned has been committed.
+ *
+ * A transaction started on the writer thread itself, such as one nested in another, runs inline
+ * in a savepoint like any transaction on a pinned connection.
+ */
+class SingleWriter {
+    private final int shard;
+    private final int maxGroup;
+    private final LinkedBlockingQueue<Task<?>> queue = new LinkedBlockingQueue<>();
+    private final Metrics.Timer commitTimer = Metrics.timer("write group commit");
+    private final LongAdder groups = new LongAdder();
+    private final LongAdder transactions = new LongAdder();
+
+    SingleWriter(int shard, int maxGroup) {
+        this.shard = shard;
+        this.maxGroup = Math.max(1, maxGroup);
+        Thread thread = new Thread(this::run, shard == 0 ? "single-writer" : "single-writer-" + shard);
+        thread.setDaemon(true);
+        thread.start();
+        Metrics.gauge(shard == 0 ? "writer" : "writer shard " + shard, () -> "Writer{groups=" + groups.sum() + ", transactions=" + transactions.sum()
+                + ", queued=" + queue.size() + "}");
+    }
+
+    // Runs the work in the next group and returns its result once the group has committed
+    <T, E extends Exception> T submit(ConnectionManager.Transaction<T, E> work) throws SQLException, E {
+        Task<T> task = new Task<>(work);
+        queue.add(task);
+        try {
+            task.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a write to commit");
+        }
+        if (task.failure == null) {
+            return task.result;
+        }
+        if (task.failure instanceof SQLException) {
+            throw (SQLException) task.failure;
+        }
+        if (task.failure instanceof RuntimeException) {
+            throw (RuntimeException) task.failure;
+        }
+        // anything else was thrown by the work as its E
+        @SuppressWarnings("unchecked")
+        E failure = (E) task.failure;
+        throw failure;
+    }
+
+    private void run() {
+        List<Task<?>> group = new ArrayList<>();
+        while (true) {
+            try {
+                group.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(group, maxGroup - 1);
+            runGroup(group);
+            for (Task<?> task : group) {
+                task.done.countDown();
+            }
+            group.clear();
+        }
+    }
+
+    private void runGroup(List<Task<?>> group) {
+        Connection con;
+        try {
+            con = ConnectionManager.pinConnection(shard);
+            con.setAutoCommit(false);
+        } catch (SQLException e) {
+            fail(group, e);
+            ConnectionManager.unpinConnection(shard);
+            return;
+        }
+        for (Task<?> task : group) {
+            task.run(shard);
+        }
+        long start = System.nanoTime();
+        try {
+            con.commit();
+            commitTimer.record(System.nanoTime() - start);
+            groups.increment();
+            transactions.add(group.size());
+        } catch (SQLException e) {
+            commitTimer.recordError(System.nanoTime() - start);
+            fail(group, e);
+            // the connection goes back to the pool, which rolls it back, and a fresh one is
+            // pinned for the next group
+            ConnectionManager.unpinConnection(shard);
+        }
+    }
+
+    private static void fail(List<Task<?>> group, SQLException e) {
+        for (Task<?> task : group) {
+            if (task.failure == null) {
+                task.failure = e;
+            }
+        }
+    }
+
+    private static class Task<T> {
+        private final ConnectionManager.Transaction<T, ?> work;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private T result;
+        private Exception failure;
+
+        Task(ConnectionManager.Transaction<T, ?> work) {
+            this.work = work;
+        }
+
+        // on the pinned connection with the group's transaction open, this runs in a savepoint
+        void run(int shard) {
+            try {
+                result = ConnectionManager.runInTransaction(shard, work);
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package scheduler.db;
+
+import scheduler.metrics.Metrics;
+import scheduler.util.Util;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Logs statements that took longer than SlowQueryMillis, together with their bind values and
+ * the EXPLAIN QUERY PLAN of the statement. The executing thread only offers an entry to a
+ * bounded queue; formatting, the plan lookup and the write happen on a background thread.
+ * When the queue is full the entry is dropped and counted rather than slowing the caller.
+ *
+ * The plan is looked up on the shard the statement ran on, over a connection the background
+ * thread opens for itself: slow statements come in bursts when the database is struggling, and
+ * explaining them must not take pooled connections from the commands waiting for one.
+ *
+ * Binary bind values (password salts and hashes) are never written out.
+ */
+public class SlowQueryLog {
+    private static final long thresholdNanos = Util.intEnv("SlowQueryMillis", 1000) * 1_000_000L;
+    private static final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(1024);
+    private static final LongAdder dropped = new LongAdder();
+    private static final PrintStream log = openLog(System.getenv("SlowQueryLogFile"));
+
+    // the background thread's own connection to each shard, opened on first use
+    private static final Connection[] explainConnections = new Connection[ShardRouter.count()];
+
+    static {
+        Metrics.gauge("slow queries dropped", () -> Long.toString(dropped.sum()));
+        if (thresholdNanos > 0) {
+            Thread writer = new Thread(SlowQueryLog::drain, "slow-query-log");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    private SlowQueryLog() {
+    }
+
+    static boolean isSlow(long nanos) {
+        return thresholdNanos > 0 && nanos >= thresholdNanos;
+    }
+
+    // Called on the executing thread; never blocks
+    static void submit(int shard, String sql, Object[] binds, String rows, long nanos) {
+        if (!queue.offer(new Entry(shard, sql, binds, rows, nanos))) {
+            dropped.increment();
+        }
+    }
+
+    public static long getDropped() {
+        return dropped.sum();
+    }
+
+    private static void drain() {
+        while (true) {
+            try {
+                write(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static void write(Entry entry) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(Instant.now()).append(" slow statement ")
+                .append(entry.nanos / 1_000_000).append(" ms, rows=").append(entry.rows);
+        if (ShardRouter.count() > 1) {
+            sb.append(", shard=").append(entry.shard);
+        }
+        sb.append('\n');
+        sb.append("  sql: ").append(entry.sql).append('\n');
+        sb.append("  binds: ").append(describe(entry.binds)).append('\n');
+        sb.append("  plan: ").append(explain(entry)).append('\n');
+        log.print(sb);
+        log.flush();
+    }
+
+    private static String describe(Object[] binds) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < binds.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            Object value = binds[i];
+            if (value instanceof byte[]) {
+                sb.append("<redacted>");
+            } else if (value instanceof String) {
+                sb.append('\'').append(value).append('\'');
+            } else {
+                sb.append(value);
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String explain(Entry entry) {
+        Connection con;
+        try {
+            con = explainConnection(entry.shard);
+        } catch (SQLException e) {
+            return "unavailable (" + e.getMessage() + ")";
+        }
+        try (PreparedStatement explain = con.prepareStatement(
+                Dialect.getInstance().explainPrefix() + entry.sql)) {
+            int parameters = explain.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= parameters; i++) {
+                Object value = i <= entry.binds.length ? entry.binds[i - 1] : null;
+                explain.setObject(i, value instanceof byte[] ? null : value);
+            }
+            StringBuilder plan = new StringBuilder();
+            try (ResultSet rs = explain.executeQuery()) {
+                while (rs.next()) {
+                    if (plan.length() > 0) {
+                        plan.append("; ");
+                    }
+                    plan.append(Dialect.getInstance().planStep(rs));
+                }
+            }
+            return plan.toString();
+        } catch (SQLException e) {
+            closeExplainConnection(entry.shard);
+            return "unavailable (" + e.getMessage() + ")";
+        }
+    }
+
+    // Only the background thread calls this and closeExplainConnection
+    private static Connection explainConnection(int shard) throws SQLException {
+        Connection con = explainConnections[shard];
+        if (con == null || con.isClosed()) {
+            con = DriverManager.getConnection(Dialect.getInstance().connectionUrl(shard));
+            explainConnections[shard] = con;
+        }
+        return con;
+    }
+
+    // Drops a connection that failed, in case it is broken; the next plan opens a new one
+    private static void closeExplainConnection(int shard) {
+        Connection con = explainConnections[shard];
+        explainConnections[shard] = null;
+        if (con != null) {
+            try {
+                con.close();
+            } catch (SQLException e) {
+                // already unusable
+            }
+        }
+    }
+
+    private static PrintStream openLog(String file) {
+        if (file == null || file.isEmpty()) {
+            return System.err;
+        }
+        try {
+            return new PrintStream(new FileOutputStream(file, true), false, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.out.println("Could not open " + file + ", logging slow statements to stderr");
+            return System.err;
+        }
+    }
+
+    private static class Entry {
+        final int shard;
+        final String sql;
+        final Object[] binds;
+        final String rows;
+        final long nanos;
+
+        Entry(int shard, String sql, Object[] binds, String rows, long nanos) {
+            this.shard = shard;
+            this.sql = sql;
+            this.binds = binds;
+            this.rows = rows;
+            this.nanos = nanos;
+        }
+    }
+}
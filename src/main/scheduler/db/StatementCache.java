@@ -0,0 +1,82 @@
+package scheduler.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepared statements of a single connection, keyed by SQL text. The least recently used
+ * statement is closed once the cache holds more than {@code capacity} entries.
+ *
+ * A cached statement belongs to the cache: callers bind parameters and execute it, but never
+ * close it. Only the thread holding the connection's lease may use the cache.
+ */
+public class StatementCache {
+    private final Connection con;
+    private final int shard;
+    private final int capacity;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    // per-connection counters, plus the pool-wide totals they roll up into
+    private long hits;
+    private long misses;
+    private final AtomicLong totalHits;
+    private final AtomicLong totalMisses;
+
+    StatementCache(Connection con, int shard, int capacity, AtomicLong totalHits, AtomicLong totalMisses) {
+        this.con = con;
+        this.shard = shard;
+        this.capacity = capacity;
+        this.totalHits = totalHits;
+        this.totalMisses = totalMisses;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null && !statement.isClosed()) {
+            hits++;
+            totalHits.incrementAndGet();
+            statement.clearParameters();
+            return statement;
+        }
+        misses++;
+        totalMisses.incrementAndGet();
+        statement = InstrumentedStatement.wrap(con.prepareStatement(sql), sql, shard);
+        statements.put(sql, statement);
+        evictOverflow();
+        return statement;
+    }
+
+    private void evictOverflow() {
+        Iterator<Map.Entry<String, PreparedStatement>> it = statements.entrySet().iterator();
+        while (statements.size() > capacity && it.hasNext()) {
+            PreparedStatement eldest = it.next().getValue();
+            it.remove();
+            closeQuietly(eldest);
+        }
+    }
+
+    void closeAll() {
+        for (PreparedStatement statement : statements.values()) {
+            closeQuietly(statement);
+        }
+        statements.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int size() { return statements.size(); }
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+}
@@ -0,0 +1,475 @@
+package scheduler.importer;
+
+import scheduler.availability.AvailabilityIndex;
+import scheduler.availability.Slots;
+import scheduler.db.ConnectionManager;
+import scheduler.db.ShardRouter;
+import scheduler.inventory.DoseInventory;
+import scheduler.model.Caregiver;
+import scheduler.model.Patient;
+import scheduler.model.Vaccine;
+import scheduler.model.Waitlist;
+import scheduler.util.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Streams patients, caregivers, vaccines and availabilities from a file into the database.
+ *
+ * A .csv file has one record per line, {@code <type>,<a>,<b>}:
+ * <pre>
+ * patient,&lt;username&gt;,&lt;password&gt;
+ * caregiver,&lt;username&gt;,&lt;password&gt;
+ * vaccine,&lt;name&gt;,&lt;doses&gt;
+ * availability,&lt;caregiver&gt;,&lt;date&gt;
+ * </pre>
+ * A .jsonl file has one flat JSON object per line with the same fields by name, for example
+ * {@code {"type": "vaccine", "name": "Pfizer", "doses": 100}}. Blank lines and lines starting
+ * with # are ignored.
+ *
+ * The file is read one batch at a time. Passwords of a batch are hashed in parallel on the
+ * hashing pool, and the batch is written in a single transaction per shard. A row that cannot be imported
+ * is reported with its line number and does not stop the rest of the import. Once a shard's
+ * transaction commits, the waitlist is told about the dates and vaccines it added capacity to.
+ */
+public class BulkImporter {
+    // hashes submitted ahead of the one being waited on, kept below the hashing pool's queue size
+    private static final int HASH_WINDOW = 256;
+
+    private final int batchSize;
+    private final PrintStream out;
+
+    private long imported = 0;
+    private long skipped = 0;
+    private long failed = 0;
+
+    public BulkImporter(int batchSize, PrintStream out) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive!");
+        }
+        this.batchSize = batchSize;
+        this.out = out;
+    }
+
+    public void importFile(Path file) throws IOException {
+        boolean json = file.getFileName().toString().toLowerCase().endsWith(".jsonl");
+        long started = System.nanoTime();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            List<Row> batch = new ArrayList<>(batchSize);
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                Row row = parse(lineNumber, trimmed, json);
+                if (row != null) {
+                    batch.add(row);
+                }
+                if (batch.size() == batchSize) {
+                    importBatch(batch);
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                importBatch(batch);
+            }
+        }
+        long millis = (System.nanoTime() - started) / 1_000_000;
+        out.println("Imported " + imported + " rows, skipped " + skipped + ", failed " + failed
+                + " in " + millis + " ms");
+    }
+
+    private Row parse(int lineNumber, String line, boolean json) {
+        try {
+            Row row = json ? parseJson(lineNumber, line) : parseCsv(lineNumber, line);
+            row.validate();
+            return row;
+        } catch (RuntimeException e) {
+            // IllegalArgumentException for bad values, anything else for a record too mangled to read
+            fail(lineNumber, e instanceof IllegalArgumentException && e.getMessage() != null
+                    ? e.getMessage() : "malformed record (" + e + ")");
+            return null;
+        }
+    }
+
+    private static Row parseCsv(int lineNumber, String line) {
+        String[] fields = line.split(",", -1);
+        if (fields.length != 3) {
+            throw new IllegalArgumentException("expected <type>,<a>,<b>");
+        }
+        return new Row(lineNumber, fields[0].trim(), fields[1].trim(), fields[2].trim());
+    }
+
+    private static Row parseJson(int lineNumber, String line) {
+        Map<String, String> fields = FlatJson.parse(line);
+        String type = require(fields, "type");
+        switch (type) {
+            case "patient":
+            case "caregiver":
+                return new Row(lineNumber, type, require(fields, "username"), require(fields, "password"));
+            case "vaccine":
+                return new Row(lineNumber, type, require(fields, "name"), require(fields, "doses"));
+            case "availability":
+                return new Row(lineNumber, type, require(fields, "caregiver"), require(fields, "date"));
+            default:
+                throw new IllegalArgumentException("unknown type " + type);
+        }
+    }
+
+    private static String require(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("missing field " + name);
+        }
+        return value;
+    }
+
+    private void importBatch(List<Row> batch) {
+        hashPasswords(batch);
+        List<Row> ready = new ArrayList<>(batch.size());
+        for (Row row : batch) {
+            if (row.error == null) {
+                ready.add(row);
+            } else {
+                fail(row.lineNumber, row.error);
+            }
+        }
+
+        // availabilities go to the shard of their date, everything else to shard 0, in one
+        // transaction per shard
+        Map<Integer, List<Row>> byShard = new TreeMap<>();
+        for (Row row : ready) {
+            int shard = row.type.equals("availability") ? ShardRouter.shardOf(row.date) : 0;
+            byShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(row);
+        }
+        for (Map.Entry<Integer, List<Row>> shard : byShard.entrySet()) {
+            try {
+                ConnectionManager.runInTransaction(shard.getKey(), cm -> {
+                    write(cm, shard.getValue());
+                    return null;
+                });
+            } catch (SQLException | RuntimeException e) {
+                for (Row row : shard.getValue()) {
+                    fail(row.lineNumber, "batch could not be written: " + e.getMessage());
+                }
+                continue;
+            }
+            committed(shard.getValue());
+        }
+    }
+
+    // Counts the rows of a committed transaction and brings the in-memory state up to date
+    private void committed(List<Row> written) {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        Waitlist waitlist = Waitlist.getInstance();
+        for (Row row : written) {
+            if (row.inserted) {
+                imported++;
+                if (row.type.equals("availability")) {
+                    index.add(row.date, row.a, Slots.ALL);
+                    waitlist.dateChanged(row.date);
+                } else if (row.type.equals("vaccine")) {
+                    DoseInventory.getInstance().tableChanged();
+                    waitlist.vaccineChanged(row.a);
+                }
+            } else {
+                skipped++;
+                out.println("line " + row.lineNumber + ": skipped, " + row.type + " " + row.a + " already exists");
+            }
+        }
+    }
+
+    // Salts and hashes every password of the batch on the hashing pool, at most HASH_WINDOW at a time
+    private static void hashPasswords(List<Row> batch) {
+        Deque<Row> pending = new ArrayDeque<>();
+        for (Row row : batch) {
+            if (!row.hasPassword()) {
+                continue;
+            }
+            if (pending.size() >= HASH_WINDOW) {
+                awaitHash(pending.removeFirst());
+            }
+            row.salt = Util.generateSalt();
+            row.hashFuture = Util.generateHashAsync(row.b, row.salt);
+            pending.addLast(row);
+        }
+        for (Row row : pending) {
+            awaitHash(row);
+        }
+    }
+
+    private static void awaitHash(Row row) {
+        try {
+            row.hash = row.hashFuture.join();
+        } catch (CompletionException e) {
+            row.error = "password could not be hashed";
+        }
+    }
+
+    private static void write(ConnectionManager cm, List<Row> rows) throws SQLException {
+        List<Row> patients = new ArrayList<>();
+        List<Row> caregivers = new ArrayList<>();
+        List<Row> vaccines = new ArrayList<>();
+        List<Row> availabilities = new ArrayList<>();
+        for (Row row : rows) {
+            switch (row.type) {
+                case "patient": patients.add(row); break;
+                case "caregiver": caregivers.add(row); break;
+                case "vaccine": vaccines.add(row); break;
+                default: availabilities.add(row); break;
+            }
+        }
+
+        if (!patients.isEmpty()) {
+            PreparedStatement statement = cm.prepareStatement(
+                    "INSERT INTO Patients(Username, Salt, Hash) VALUES (?, ?, ?) ON CONFLICT(Username) DO NOTHING");
+            for (Row row : patients) {
+                Patient patient = new Patient.PatientBuilder(row.a, row.salt, row.hash).build();
+                statement.setString(1, patient.getUsername());
+                statement.setBytes(2, patient.getSalt());
+                statement.setBytes(3, patient.getHash());
+                statement.addBatch();
+            }
+            markInserted(patients, statement.executeBatch());
+        }
+        if (!caregivers.isEmpty()) {
+            PreparedStatement statement = cm.prepareStatement(
+                    "INSERT INTO Caregivers(Username, Salt, Hash) VALUES (?, ?, ?) ON CONFLICT(Username) DO NOTHING");
+            for (Row row : caregivers) {
+                Caregiver caregiver = new Caregiver.CaregiverBuilder(row.a, row.salt, row.hash).build();
+                statement.setString(1, caregiver.getUsername());
+                statement.setBytes(2, caregiver.getSalt());
+                statement.setBytes(3, caregiver.getHash());
+                statement.addBatch();
+            }
+            markInserted(caregivers, statement.executeBatch());
+        }
+        if (!vaccines.isEmpty()) {
+            // importing doses of a vaccine that already exists adds to its stock, like add_doses
+            PreparedStatement statement = cm.prepareStatement(
+                    "INSERT INTO Vaccines(Name, Doses) VALUES (?, ?) "
+                            + "ON CONFLICT(Name) DO UPDATE SET Doses = Vaccines.Doses + excluded.Doses");
+            for (Row row : vaccines) {
+                Vaccine vaccine = new Vaccine.VaccineBuilder(row.a, row.doses).build();
+                statement.setString(1, vaccine.getVaccineName());
+                statement.setInt(2, vaccine.getAvailableDoses());
+                statement.addBatch();
+            }
+            markInserted(vaccines, statement.executeBatch());
+        }
+        if (!availabilities.isEmpty()) {
+            PreparedStatement statement = cm.prepareStatement(
+                    "INSERT INTO Availabilities (Time, Username, Slots, Booked) VALUES (?, ?, ?, 0) "
+                            + "ON CONFLICT(Time, Username) DO NOTHING");
+            for (Row row : availabilities) {
+                statement.setDate(1, row.date);
+                statement.setString(2, row.a);
+                statement.setLong(3, Slots.ALL);
+                statement.addBatch();
+            }
+            markInserted(availabilities, statement.executeBatch());
+        }
+    }
+
+    private static void markInserted(List<Row> rows, int[] counts) {
+        for (int i = 0; i < rows.size(); i++) {
+            rows.get(i).inserted = counts[i] > 0;
+        }
+    }
+
+    private void fail(int lineNumber, String message) {
+        failed++;
+        out.println("line " + lineNumber + ": " + message);
+    }
+
+    public long getImported() { return imported; }
+    public long getSkipped() { return skipped; }
+    public long getFailed() { return failed; }
+
+    // One record of the input file; a and b are the two fields after the type
+    private static class Row {
+        final int lineNumber;
+        final String type;
+        final String a;
+        final String b;
+
+        int doses;
+        Date date;
+        byte[] salt;
+        CompletableFuture<byte[]> hashFuture;
+        byte[] hash;
+        String error;
+        boolean inserted;
+
+        Row(int lineNumber, String type, String a, String b) {
+            this.lineNumber = lineNumber;
+            this.type = type;
+            this.a = a;
+            this.b = b;
+        }
+
+        boolean hasPassword() {
+            return error == null && (type.equals("patient") || type.equals("caregiver"));
+        }
+
+        void validate() {
+            if (a.isEmpty()) {
+                throw new IllegalArgumentException("empty name");
+            }
+            switch (type) {
+                case "patient":
+                case "caregiver":
+                    if (!Util.isStrongPassword(b)) {
+                        throw new IllegalArgumentException("password of " + a + " is not strong enough");
+                    }
+                    break;
+                case "vaccine":
+                    try {
+                        doses = Integer.parseInt(b);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("invalid number of doses " + b);
+                    }
+                    if (doses < 0) {
+                        throw new IllegalArgumentException("number of doses cannot be negative");
+                    }
+                    break;
+                case "availability":
+                    date = Date.valueOf(b);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown type " + type);
+            }
+        }
+    }
+
+    // Just enough JSON for one flat object per line: string, number, boolean and null values
+    static class FlatJson {
+        private final String text;
+        private int pos = 0;
+
+        private FlatJson(String text) {
+            this.text = text;
+        }
+
+        static Map<String, String> parse(String text) {
+            return new FlatJson(text).object();
+        }
+
+        private Map<String, String> object() {
+            Map<String, String> fields = new HashMap<>();
+            expect('{');
+            skipSpace();
+            if (peek() == '}') {
+                pos++;
+                return fields;
+            }
+            while (true) {
+                skipSpace();
+                String name = string();
+                skipSpace();
+                expect(':');
+                skipSpace();
+                fields.put(name, value());
+                skipSpace();
+                char c = next();
+                if (c == '}') {
+                    return fields;
+                }
+                if (c != ',') {
+                    throw new IllegalArgumentException("malformed JSON at column " + pos);
+                }
+            }
+        }
+
+        private String value() {
+            if (peek() == '"') {
+                return string();
+            }
+            int start = pos;
+            while (pos < text.length() && ",} \t".indexOf(text.charAt(pos)) < 0) {
+                pos++;
+            }
+            String literal = text.substring(start, pos);
+            if (literal.isEmpty() || literal.equals("null")) {
+                return null;
+            }
+            return literal;
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case 'n': sb.append('\n'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw new IllegalArgumentException("malformed JSON escape");
+                        }
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: sb.append(escaped); break;
+                }
+            }
+        }
+
+        private void skipSpace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private void expect(char c) {
+            if (next() != c) {
+                throw new IllegalArgumentException("malformed JSON, expected " + c + " at column " + pos);
+            }
+        }
+
+        private char peek() {
+            if (pos >= text.length()) {
+                throw new IllegalArgumentException("unexpected end of JSON");
+            }
+            return text.charAt(pos);
+        }
+
+        private char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+    }
+}
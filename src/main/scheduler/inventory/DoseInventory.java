@@ -0,0 +1,346 @@
+package scheduler.inventory;
+
+import scheduler.db.ConnectionManager;
+import scheduler.util.Util;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out vaccine doses to reservations without writing the vaccine's row for every one.
+ * The scheduler leases a block of DoseBlockSize doses at a time from Vaccines.Doses and keeps
+ * them as a local allotment, spread over striped counters so concurrent reservations of the same
+ * vaccine rarely touch the same counter. A reservation takes a dose from the allotment; only
+ * when the allotment is empty does it go back to the table for another block, and the table
+ * only ever hands out doses it has, so nothing can be oversold.
+ *
+ * Vaccines.Doses therefore counts the doses not allotted to this process; the exact number
+ * available is that plus {@link #allotted}. Doses come back to the allotment from expired holds
+ * (a cancellation puts its dose straight back in the table), so a flush returns everything
+ * above one block to the table every DoseFlushSeconds, and straight away once more than two
+ * blocks have piled up. Other processes see those doses, and a crash loses at most about a
+ * block per vaccine. Whatever is left is given back to the table when the program exits.
+ *
+ * A script group (see {@link #beginGroup}) leases and returns doses inside a transaction that
+ * may still be rolled back. The allotment keeps count of what the group's own thread did to it,
+ * so that a rollback undoes exactly that and leaves the doses other threads took alone.
+ */
+public class DoseInventory {
+    private static final DoseInventory instance = new DoseInventory();
+
+    private final int blockSize = Math.max(1, Util.intEnv("DoseBlockSize", 20));
+    private final long flushMillis = Math.max(1, Util.intEnv("DoseFlushSeconds", 10)) * 1000L;
+    private final int stripes = Runtime.getRuntime().availableProcessors();
+    private final ConcurrentHashMap<String, AtomicInteger[]> allotments = new ConcurrentHashMap<>();
+
+    // doses Vaccines.Doses still counts although they have been used: a rolled back group's
+    // lease came back to the table after other threads had taken some of it. The next flush
+    // subtracts them.
+    private final ConcurrentHashMap<String, AtomicInteger> owed = new ConcurrentHashMap<>();
+
+    // bumped after every committed write to Vaccines.Doses, see tableVersion()
+    private final AtomicLong tableVersion = new AtomicLong();
+
+    // the script group running on this thread, if any
+    private final ThreadLocal<Group> group = new ThreadLocal<>();
+
+    private final ScheduledExecutorService flusher;
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+
+    private DoseInventory() {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dose-inventory-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                returnAll();
+            } catch (SQLException e) {
+                System.out.println("Could not return unused vaccine doses: " + e.getMessage());
+            }
+        }, "dose-inventory-return"));
+    }
+
+    public static DoseInventory getInstance() {
+        return instance;
+    }
+
+    // Takes one dose of the vaccine, leasing a new block from the table when the allotment has run
+    // out. Returns false if the vaccine has no doses left. Must not be called inside a transaction
+    // of the caller's, since leasing writes to Vaccines in a transaction of its own.
+    public boolean take(String vaccineName) throws SQLException {
+        AtomicInteger[] counters = counters(vaccineName);
+        int home = stripe();
+        if (takeLocal(counters, home)) {
+            track(vaccineName, -1);
+            return true;
+        }
+        synchronized (counters) {
+            // another thread may have leased a block while this one waited
+            if (takeLocal(counters, home)) {
+                track(vaccineName, -1);
+                return true;
+            }
+            int leased = lease(vaccineName);
+            if (leased == 0) {
+                return false;
+            }
+            counters[home].addAndGet(leased - 1);
+            track(vaccineName, leased - 1);
+            // only now that the allotment holds the lease does a search that sees the new
+            // version add up to the right number of doses
+            tableChanged();
+            return true;
+        }
+    }
+
+    // Puts back a dose taken by a reservation that did not go through, or freed by an expired
+    // hold or by a cancellation that could not return it to the table
+    public void giveBack(String vaccineName) {
+        AtomicInteger[] counters = counters(vaccineName);
+        counters[stripe()].incrementAndGet();
+        track(vaccineName, 1);
+        if (total(counters) > 2 * blockSize && flushQueued.compareAndSet(false, true)) {
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    // The doses of the vaccine held in the local allotment, less any the table counts that were
+    // already used (see owed)
+    public int allotted(String vaccineName) {
+        AtomicInteger[] counters = allotments.get(vaccineName);
+        AtomicInteger debt = owed.get(vaccineName);
+        return (counters == null ? 0 : total(counters)) - (debt == null ? 0 : debt.get());
+    }
+
+    // Returns every dose above one block per vaccine to the table. Doses that cannot be written
+    // back stay in the allotment for the next flush.
+    public void flush() throws SQLException {
+        flush(blockSize);
+    }
+
+    // Writes every unused dose back to the table
+    public void returnAll() throws SQLException {
+        flush(0);
+    }
+
+    private void flushQuietly() {
+        flushQueued.set(false);
+        try {
+            flush();
+        } catch (SQLException | RuntimeException e) {
+            // the doses stayed in the allotment; the next flush tries again
+        }
+    }
+
+    private void flush(int keep) throws SQLException {
+        Set<String> vaccines = new HashSet<>(allotments.keySet());
+        vaccines.addAll(owed.keySet());
+        SQLException failure = null;
+        for (String vaccineName : vaccines) {
+            AtomicInteger[] counters = counters(vaccineName);
+            int surplus = drain(counters, total(counters) - keep);
+            AtomicInteger debt = owed.get(vaccineName);
+            int paid = debt == null ? 0 : debt.getAndSet(0);
+            if (surplus != paid) {
+                try {
+                    ConnectionManager.runInTransaction(cm -> {
+                        PreparedStatement statement = cm.prepareStatement(
+                                "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?");
+                        statement.setInt(1, surplus - paid);
+                        statement.setString(2, vaccineName);
+                        return statement.executeUpdate();
+                    });
+                } catch (SQLException e) {
+                    counters[stripe()].addAndGet(surplus);
+                    owe(vaccineName, paid);
+                    if (failure == null) {
+                        failure = e;
+                    }
+                    continue;
+                }
+                tableChanged();
+            }
+            Group current = group.get();
+            if (current != null) {
+                current.add(current.excess, vaccineName, -surplus);
+                current.add(current.paid, vaccineName, paid);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // A number that changes whenever the doses stored in Vaccines do. Read it before reading the
+    // table: if it is still the same later, what was read is still current.
+    public long tableVersion() {
+        return tableVersion.get();
+    }
+
+    // Called after any committed write to Vaccines.Doses, including those made outside this class
+    public void tableChanged() {
+        tableVersion.incrementAndGet();
+    }
+
+    // Starts keeping count of what this thread does to the allotment, for a group of commands
+    // whose transaction may still be rolled back
+    public void beginGroup() {
+        group.set(new Group());
+    }
+
+    // The group's transaction on Vaccines committed, so what it did to the allotment stands
+    public void commitGroup() {
+        group.remove();
+    }
+
+    // The group's transaction on Vaccines was rolled back, undoing its leases, its flushes and
+    // the bookings and cancellations that took and gave back doses. Undoes the same on the
+    // allotment. Doses of a lease that other threads have used meanwhile cannot be taken back
+    // from them, so they are owed to the table instead.
+    public void rollbackGroup() {
+        Group rolledBack = group.get();
+        group.remove();
+        if (rolledBack == null) {
+            return;
+        }
+        for (Map.Entry<String, Integer> entry : rolledBack.excess.entrySet()) {
+            AtomicInteger[] counters = counters(entry.getKey());
+            int excess = entry.getValue();
+            if (excess > 0) {
+                owe(entry.getKey(), excess - drain(counters, excess));
+            } else if (excess < 0) {
+                counters[stripe()].addAndGet(-excess);
+            }
+        }
+        for (Map.Entry<String, Integer> entry : rolledBack.paid.entrySet()) {
+            owe(entry.getKey(), entry.getValue());
+        }
+        tableChanged();
+    }
+
+    private void track(String vaccineName, int doses) {
+        Group current = group.get();
+        if (current != null) {
+            current.add(current.excess, vaccineName, doses);
+        }
+    }
+
+    private void owe(String vaccineName, int doses) {
+        if (doses > 0) {
+            owed.computeIfAbsent(vaccineName, v -> new AtomicInteger()).addAndGet(doses);
+        }
+    }
+
+    private AtomicInteger[] counters(String vaccineName) {
+        return allotments.computeIfAbsent(vaccineName, v -> {
+            AtomicInteger[] counters = new AtomicInteger[stripes];
+            for (int i = 0; i < stripes; i++) {
+                counters[i] = new AtomicInteger();
+            }
+            return counters;
+        });
+    }
+
+    private int stripe() {
+        return (int) (Thread.currentThread().getId() % stripes);
+    }
+
+    private static int total(AtomicInteger[] counters) {
+        int total = 0;
+        for (AtomicInteger counter : counters) {
+            total += counter.get();
+        }
+        return total;
+    }
+
+    // Removes up to the given number of doses from the counters and returns how many it removed
+    private static int drain(AtomicInteger[] counters, int doses) {
+        int drained = 0;
+        for (AtomicInteger counter : counters) {
+            while (drained < doses) {
+                int held = counter.get();
+                if (held <= 0) {
+                    break;
+                }
+                int moved = Math.min(held, doses - drained);
+                if (counter.compareAndSet(held, held - moved)) {
+                    drained += moved;
+                }
+            }
+        }
+        return drained;
+    }
+
+    // Decrements the first non-empty counter, starting with the thread's own
+    private static boolean takeLocal(AtomicInteger[] counters, int home) {
+        for (int i = 0; i < counters.length; i++) {
+            AtomicInteger counter = counters[(home + i) % counters.length];
+            int doses = counter.get();
+            while (doses > 0) {
+                if (counter.compareAndSet(doses, doses - 1)) {
+                    return true;
+                }
+                doses = counter.get();
+            }
+        }
+        return false;
+    }
+
+    // Moves up to a block of doses from the table to the allotment and returns how many moved
+    private int lease(String vaccineName) throws SQLException {
+        return ConnectionManager.runInTransaction(cm -> {
+            PreparedStatement select = cm.prepareStatement("SELECT Doses FROM Vaccines WHERE Name = ?");
+            PreparedStatement update = cm.prepareStatement(
+                    "UPDATE Vaccines SET Doses = Doses - ? WHERE Name = ? AND Doses >= ?");
+            while (true) {
+                select.setString(1, vaccineName);
+                int available;
+                try (ResultSet rs = select.executeQuery()) {
+                    available = rs.next() ? rs.getInt("Doses") : 0;
+                }
+                int doses = Math.min(blockSize, available);
+                if (doses <= 0) {
+                    return 0;
+                }
+                update.setInt(1, doses);
+                update.setString(2, vaccineName);
+                update.setInt(3, doses);
+                if (update.executeUpdate() == 1) {
+                    return doses;
+                }
+                // another process leased in between; the update has locked the database for
+                // writing, so the count read next is final
+            }
+        });
+    }
+
+    // What one thread's script group has done to the allotment so far, per vaccine
+    private static class Group {
+        // doses the group added to the allotment (leases, give-backs) less those it removed
+        // (takes, flushes); a rollback removes them again
+        final Map<String, Integer> excess = new HashMap<>();
+        // doses owed to the table that the group's flushes settled; a rollback owes them again
+        final Map<String, Integer> paid = new HashMap<>();
+
+        void add(Map<String, Integer> counts, String vaccineName, int doses) {
+            if (doses != 0) {
+                counts.merge(vaccineName, doses, Integer::sum);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package scheduler.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide registry of named timers, plus gauges that other components register to report
+ * their own numbers. {@link #render()} produces the plain-text report served by the stats
+ * command and the metrics endpoint.
+ */
+public class Metrics {
+    private static final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Supplier<String>> gauges = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static Timer timer(String name) {
+        Timer timer = timers.get(name);
+        return timer != null ? timer : timers.computeIfAbsent(name, n -> new Timer());
+    }
+
+    // Registers a section of the report that is computed when the report is rendered
+    public static void gauge(String name, Supplier<String> value) {
+        gauges.put(name, value);
+    }
+
+    public static String render() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+            Timer timer = entry.getValue();
+            LatencyHistogram h = timer.histogram;
+            sb.append(entry.getKey())
+                    .append(" count=").append(h.getCount())
+                    .append(" errors=").append(timer.errors.sum())
+                    .append(" p50_us=").append(h.percentileMicros(0.50))
+                    .append(" p90_us=").append(h.percentileMicros(0.90))
+                    .append(" p99_us=").append(h.percentileMicros(0.99))
+                    .append(" p999_us=").append(h.percentileMicros(0.999))
+                    .append(" max_us=").append(h.getMaxMicros())
+                    .append('\n');
+        }
+        for (Map.Entry<String, Supplier<String>> entry : new TreeMap<>(gauges).entrySet()) {
+            sb.append(entry.getKey()).append(' ').append(entry.getValue().get()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static class Timer {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+
+        private Timer() {
+        }
+
+        public void record(long nanos) {
+            histogram.recordNanos(nanos);
+        }
+
+        // Records the duration of an operation that failed
+        public void recordError(long nanos) {
+            histogram.recordNanos(nanos);
+            errors.increment();
+        }
+
+        public LatencyHistogram getHistogram() { return histogram; }
+        public long getErrors() { return errors.sum(); }
+    }
+}
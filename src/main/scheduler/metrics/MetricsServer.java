@@ -0,0 +1,38 @@
+package scheduler.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves {@link Metrics#render()} as plain text at /metrics for scraping. The report names users'
+ * commands and SQL, so unless told otherwise the endpoint listens on the loopback interface only.
+ */
+public class MetricsServer {
+
+    private MetricsServer() {
+    }
+
+    public static HttpServer start(int port) throws IOException {
+        return start(InetAddress.getLoopbackAddress(), port);
+    }
+
+    public static HttpServer start(InetAddress bindAddress, int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = Metrics.render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        // the default executor serves requests on the server's own dispatcher thread
+        server.start();
+        return server;
+    }
+}
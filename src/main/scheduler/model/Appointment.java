@@ -0,0 +1,492 @@
+package scheduler.model;
+
+import scheduler.availability.AssignmentStrategy;
+import scheduler.availability.AvailabilityIndex;
+import scheduler.availability.Slots;
+import scheduler.db.ConnectionManager;
+import scheduler.db.Dialect;
+import scheduler.db.IdAllocator;
+import scheduler.db.ShardRouter;
+import scheduler.inventory.DoseInventory;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class Appointment {
+    private static final IdAllocator appointmentIds = new IdAllocator("Appointments",
+            "Appointments", "AppointmentID", Util.intEnv("IdBlockSize", 100));
+
+    private final int appointmentId;
+    private final String patientName;
+    private final String caregiverName;
+    private final String vaccineName;
+    private final Date date;
+    private final String time;
+
+    private Appointment(int appointmentId, String patientName, String caregiverName,
+                        String vaccineName, Date date, String time) {
+        this.appointmentId = appointmentId;
+        this.patientName = patientName;
+        this.caregiverName = caregiverName;
+        this.vaccineName = vaccineName;
+        this.date = date;
+        this.time = time;
+    }
+
+    // Getters
+    public int getAppointmentId() { return appointmentId; }
+    public String getPatientName() { return patientName; }
+    public String getCaregiverName() { return caregiverName; }
+    public String getVaccineName() { return vaccineName; }
+    public Date getDate() { return date; }
+    public String getTime() { return time; }
+
+    // Books the earliest free slot of an available caregiver, chosen by the configured assignment
+    // strategy, and one dose of the vaccine. The dose comes from the dose inventory, which never
+    // hands out more than the table holds, and the slot is only ours if setting its Booked bit
+    // changed a row, so concurrent reservations can neither share a slot nor oversell a vaccine.
+    public static Appointment reserve(String patientName, Date date, String vaccineName)
+            throws SQLException, UnavailableException {
+        return reserve(patientName, date, vaccineName, null);
+    }
+
+    // Work done in the reservation's transaction once the appointment is inserted
+    interface Booked {
+        void run(ConnectionManager cm, Appointment appointment) throws SQLException, UnavailableException;
+    }
+
+    // Like reserve, and also runs then (when not null) in the same transaction, so that the
+    // appointment only exists if then succeeds too
+    static Appointment reserve(String patientName, Date date, String vaccineName, Booked then)
+            throws SQLException, UnavailableException {
+        return claim(date, vaccineName, appointmentIds, (cm, appointmentId, caregiverName, time) -> {
+            Appointment booked = insert(cm, appointmentId, patientName, caregiverName, vaccineName, date, time);
+            if (then != null) {
+                then.run(cm, booked);
+            }
+            return booked;
+        });
+    }
+
+    // Writes the row that a claimed slot and dose become, in the claim's transaction
+    interface Recorder<T> {
+        T record(ConnectionManager cm, int id, String caregiverName, String time)
+                throws SQLException, UnavailableException;
+    }
+
+    // The path reserve and hold share: takes one dose of the vaccine and the earliest free slot
+    // of an available caregiver, and has record write what they are for under an ID from ids, in
+    // one transaction. The dose goes back if the transaction fails, and the index and the
+    // assignment strategy learn about the slot once it has committed.
+    static <T> T claim(Date date, String vaccineName, IdAllocator ids, Recorder<T> record)
+            throws SQLException, UnavailableException {
+        if (AvailabilityIndex.getInstance().available(date).isEmpty()) {
+            throw new UnavailableException("No caregiver is available");
+        }
+        // allocated before the transaction starts, since leasing a new block of IDs or doses
+        // writes too
+        int id = Math.toIntExact(ids.nextId());
+        DoseInventory inventory = DoseInventory.getInstance();
+        if (!inventory.take(vaccineName)) {
+            throw new UnavailableException("Not enough available doses");
+        }
+
+        Claimed<T> claimed;
+        try {
+            claimed = ConnectionManager.runInTransaction(date, cm -> {
+                SlotClaim slot = claimSlot(cm, date);
+                return new Claimed<>(slot, record.record(cm, id, slot.caregiverName, Slots.time(slot.slot)));
+            });
+        } catch (SQLException | UnavailableException | RuntimeException e) {
+            inventory.giveBack(vaccineName);
+            throw e;
+        }
+        AvailabilityIndex.getInstance().remove(date, claimed.slot.caregiverName, Slots.bit(claimed.slot.slot));
+        AssignmentStrategy.getInstance().booked(date, claimed.slot.caregiverName);
+        return claimed.row;
+    }
+
+    private static class Claimed<T> {
+        final SlotClaim slot;
+        final T row;
+
+        Claimed(SlotClaim slot, T row) {
+            this.slot = slot;
+            this.row = row;
+        }
+    }
+
+    // One appointment asked for in a batch
+    public static class Request {
+        private final String patientName;
+        private final Date date;
+        private final String vaccineName;
+
+        public Request(String patientName, Date date, String vaccineName) {
+            this.patientName = patientName;
+            this.date = date;
+            this.vaccineName = vaccineName;
+        }
+
+        public String getPatientName() { return patientName; }
+        public Date getDate() { return date; }
+        public String getVaccineName() { return vaccineName; }
+    }
+
+    // What became of one request of a batch: the appointment, or why none was made
+    public static class Result {
+        private final Appointment appointment;
+        private final String error;
+
+        private Result(Appointment appointment, String error) {
+            this.appointment = appointment;
+            this.error = error;
+        }
+
+        public Appointment getAppointment() { return appointment; }
+        // null if the appointment was made
+        public String getError() { return error; }
+    }
+
+    // Books every request like reserve does and returns one result per request, in order; a
+    // request that cannot be booked does not stop the others. The requests of each shard are
+    // booked in a single transaction: the slots are chosen up front and claimed with one batch
+    // of updates, and the appointments are inserted with one batch of inserts, so the whole
+    // batch costs a few round trips rather than several per appointment. Only requests whose
+    // chosen slot was taken meanwhile fall back to claiming one slot at a time.
+    public static List<Result> reserveBatch(List<Request> requests) throws SQLException {
+        Result[] results = new Result[requests.size()];
+        int[] ids = new int[requests.size()];
+        DoseInventory inventory = DoseInventory.getInstance();
+        // allocated before the transactions start, since leasing IDs or doses writes too
+        Map<Integer, List<Integer>> byShard = new TreeMap<>();
+        List<String> taken = new ArrayList<>();
+        try {
+            for (int i = 0; i < requests.size(); i++) {
+                Request request = requests.get(i);
+                if (AvailabilityIndex.getInstance().available(request.date).isEmpty()) {
+                    results[i] = new Result(null, "No caregiver is available");
+                } else if (!inventory.take(request.vaccineName)) {
+                    results[i] = new Result(null, "Not enough available doses");
+                } else {
+                    taken.add(request.vaccineName);
+                    ids[i] = nextId();
+                    byShard.computeIfAbsent(ShardRouter.shardOf(request.date), s -> new ArrayList<>()).add(i);
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            taken.forEach(inventory::giveBack);
+            throw e;
+        }
+
+        // every shard's doses are settled before the index is reloaded, which may fail too
+        boolean reload = false;
+        for (Map.Entry<Integer, List<Integer>> shard : byShard.entrySet()) {
+            List<Integer> items = shard.getValue();
+            try {
+                ConnectionManager.runInTransaction(shard.getKey(), cm -> {
+                    bookBatch(cm, requests, items, ids, results);
+                    return null;
+                });
+            } catch (SQLException | RuntimeException e) {
+                for (int i : items) {
+                    results[i] = new Result(null, "Please try again");
+                }
+                // claims that fell back to claimSlot may have corrected the index from rows this
+                // transaction had already written
+                reload = true;
+            }
+            for (int i : items) {
+                Appointment appointment = results[i].appointment;
+                if (appointment == null) {
+                    inventory.giveBack(requests.get(i).vaccineName);
+                    continue;
+                }
+                AvailabilityIndex.getInstance().remove(appointment.date, appointment.caregiverName,
+                        Slots.bit(Slots.slotOf(appointment.time)));
+                AssignmentStrategy.getInstance().booked(appointment.date, appointment.caregiverName);
+            }
+        }
+        if (reload) {
+            AvailabilityIndex.getInstance().load();
+        }
+        return Arrays.asList(results);
+    }
+
+    // Books the given requests on cm's shard and fills in their results
+    private static void bookBatch(ConnectionManager cm, List<Request> requests, List<Integer> items,
+                                  int[] ids, Result[] results) throws SQLException {
+        // choose a slot for every request from the index, taking each chosen slot off a local
+        // copy so that two requests of the batch never choose the same one
+        Map<Date, Map<String, Long>> free = new HashMap<>();
+        String[] caregivers = new String[requests.size()];
+        int[] slots = new int[requests.size()];
+        for (int i : items) {
+            Date date = requests.get(i).date;
+            Map<String, Long> left = free.computeIfAbsent(date,
+                    d -> new HashMap<>(AvailabilityIndex.getInstance().slots(d)));
+            Iterator<String> candidates = AssignmentStrategy.getInstance().candidates(date);
+            while (caregivers[i] == null && candidates.hasNext()) {
+                String caregiverName = candidates.next();
+                long mask = left.getOrDefault(caregiverName, 0L);
+                if (mask != 0) {
+                    caregivers[i] = caregiverName;
+                    slots[i] = Long.numberOfTrailingZeros(mask);
+                    left.put(caregiverName, mask & ~Slots.bit(slots[i]));
+                }
+            }
+        }
+
+        PreparedStatement claimStmt = cm.prepareStatement(
+                "UPDATE Availabilities SET Booked = Booked | ? WHERE Time = ? AND Username = ? AND (Slots & ~Booked & ?) <> 0");
+        List<Integer> planned = new ArrayList<>();
+        for (int i : items) {
+            if (caregivers[i] != null) {
+                claimStmt.setLong(1, Slots.bit(slots[i]));
+                claimStmt.setDate(2, requests.get(i).date);
+                claimStmt.setString(3, caregivers[i]);
+                claimStmt.setLong(4, Slots.bit(slots[i]));
+                claimStmt.addBatch();
+                planned.add(i);
+            }
+        }
+        int[] claimed = planned.isEmpty() ? new int[0] : claimStmt.executeBatch();
+
+        // requests that got no slot from the plan, because the index was behind the table or the
+        // batch used up the date, try the caregivers one by one like reserve does
+        boolean[] hasSlot = new boolean[requests.size()];
+        for (int k = 0; k < planned.size(); k++) {
+            hasSlot[planned.get(k)] = claimed[k] == 1;
+        }
+        for (int i : items) {
+            if (hasSlot[i]) {
+                continue;
+            }
+            try {
+                SlotClaim claim = claimSlot(cm, requests.get(i).date);
+                caregivers[i] = claim.caregiverName;
+                slots[i] = claim.slot;
+                hasSlot[i] = true;
+            } catch (UnavailableException e) {
+                results[i] = new Result(null, e.getMessage());
+            }
+        }
+
+        PreparedStatement insertStmt = cm.prepareStatement(
+                "INSERT INTO Appointments(AppointmentID, PatientName, CaregiverName, VaccineName, Date, Time) VALUES (?, ?, ?, ?, ?, ?)");
+        int inserts = 0;
+        for (int i : items) {
+            if (hasSlot[i]) {
+                Request request = requests.get(i);
+                Appointment appointment = new Appointment(ids[i], request.patientName, caregivers[i],
+                        request.vaccineName, request.date, Slots.time(slots[i]));
+                insertStmt.setInt(1, appointment.appointmentId);
+                insertStmt.setString(2, appointment.patientName);
+                insertStmt.setString(3, appointment.caregiverName);
+                insertStmt.setString(4, appointment.vaccineName);
+                insertStmt.setDate(5, appointment.date);
+                insertStmt.setString(6, appointment.time);
+                insertStmt.addBatch();
+                inserts++;
+                results[i] = new Result(appointment, null);
+            }
+        }
+        if (inserts > 0) {
+            insertStmt.executeBatch();
+        }
+    }
+
+    static int nextId() throws SQLException {
+        return Math.toIntExact(appointmentIds.nextId());
+    }
+
+    static Appointment insert(ConnectionManager cm, int appointmentId, String patientName, String caregiverName,
+                              String vaccineName, Date date, String time) throws SQLException {
+        PreparedStatement insertStmt = cm.prepareStatement(
+                "INSERT INTO Appointments(AppointmentID, PatientName, CaregiverName, VaccineName, Date, Time) VALUES (?, ?, ?, ?, ?, ?)");
+        insertStmt.setInt(1, appointmentId);
+        insertStmt.setString(2, patientName);
+        insertStmt.setString(3, caregiverName);
+        insertStmt.setString(4, vaccineName);
+        insertStmt.setDate(5, date);
+        insertStmt.setString(6, time);
+        insertStmt.executeUpdate();
+        return new Appointment(appointmentId, patientName, caregiverName, vaccineName, date, time);
+    }
+
+    // Books the earliest free slot of the first caregiver the assignment strategy suggests who
+    // still has one on the date. The update's row count has the final word on whether the slot
+    // was still free. Where the database can lock single rows, a caregiver whose row another
+    // reservation has locked is skipped rather than waited for, so concurrent reservations on
+    // the same date spread over the caregivers instead of queueing behind one.
+    static SlotClaim claimSlot(ConnectionManager cm, Date date)
+            throws SQLException, UnavailableException {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        String skipLocked = Dialect.getInstance().skipLockedClause();
+        PreparedStatement lockStmt = skipLocked == null ? null : cm.prepareStatement(
+                "SELECT Slots & ~Booked AS Free FROM Availabilities WHERE Time = ? AND Username = ? " + skipLocked);
+        PreparedStatement claimStmt = cm.prepareStatement(
+                "UPDATE Availabilities SET Booked = Booked | ? WHERE Time = ? AND Username = ? AND (Slots & ~Booked & ?) <> 0");
+        Iterator<String> candidates = AssignmentStrategy.getInstance().candidates(date);
+        while (candidates.hasNext()) {
+            String caregiverName = candidates.next();
+            long free = index.free(date, caregiverName);
+            if (lockStmt != null && free != 0) {
+                lockStmt.setDate(1, date);
+                lockStmt.setString(2, caregiverName);
+                try (ResultSet rs = lockStmt.executeQuery()) {
+                    // no row: locked by another reservation, or gone
+                    free = rs.next() ? rs.getLong("Free") : 0;
+                }
+            }
+            while (free != 0) {
+                int slot = Long.numberOfTrailingZeros(free);
+                claimStmt.setLong(1, Slots.bit(slot));
+                claimStmt.setDate(2, date);
+                claimStmt.setString(3, caregiverName);
+                claimStmt.setLong(4, Slots.bit(slot));
+                if (claimStmt.executeUpdate() == 1) {
+                    return new SlotClaim(caregiverName, slot);
+                }
+                // taken by another reservation since the index learned about it; the update has
+                // locked the database for writing, so the table's answer is now final
+                free = AvailabilityIndex.readFree(cm, date, caregiverName);
+                index.set(date, caregiverName, free);
+            }
+        }
+        throw new UnavailableException("No caregiver is available");
+    }
+
+    // Cancels the appointment: the caregiver's slot becomes free again and the dose goes back to
+    // the Vaccines table. That table is on shard 0, so for an appointment on another shard the
+    // dose is put back in a transaction of its own once the cancellation has committed. Returns
+    // false if the appointment was already gone.
+    public boolean cancel() throws SQLException {
+        int slot = Slots.slotOf(time);
+        boolean dosesHere = ShardRouter.shardOf(date) == 0;
+        Long free = ConnectionManager.runInTransaction(date, cm -> {
+            PreparedStatement deleteStmt = cm.prepareStatement(
+                    "DELETE FROM Appointments WHERE AppointmentID = ?");
+            deleteStmt.setInt(1, appointmentId);
+            if (deleteStmt.executeUpdate() != 1) {
+                return null;
+            }
+            if (dosesHere) {
+                returnDose(cm, vaccineName);
+            }
+            return releaseSlot(cm, date, caregiverName, slot);
+        });
+        if (free == null) {
+            return false;
+        }
+        if (!dosesHere) {
+            try {
+                ConnectionManager.runInTransaction(cm -> {
+                    returnDose(cm, vaccineName);
+                    return null;
+                });
+            } catch (SQLException e) {
+                // the appointment is gone all the same; the allotment puts the dose back with
+                // its next flush
+                DoseInventory.getInstance().giveBack(vaccineName);
+            }
+        }
+        DoseInventory.getInstance().tableChanged();
+        AvailabilityIndex.getInstance().set(date, caregiverName, free);
+        AssignmentStrategy.getInstance().released(date, caregiverName);
+        Waitlist.getInstance().dateChanged(date);
+        Waitlist.getInstance().vaccineChanged(vaccineName);
+        return true;
+    }
+
+    private static void returnDose(ConnectionManager cm, String vaccineName) throws SQLException {
+        PreparedStatement doseStmt = cm.prepareStatement("UPDATE Vaccines SET Doses = Doses + 1 WHERE Name = ?");
+        doseStmt.setString(1, vaccineName);
+        doseStmt.executeUpdate();
+    }
+
+    public static class AppointmentGetter {
+        private final int appointmentId;
+
+        public AppointmentGetter(int appointmentId) {
+            this.appointmentId = appointmentId;
+        }
+
+        // The ID says nothing about the date, so every shard is asked
+        public Appointment get() throws SQLException {
+            for (Appointment found : ShardRouter.forEachShard(this::get)) {
+                if (found != null) {
+                    return found;
+                }
+            }
+            return null;
+        }
+
+        private Appointment get(int shard) throws SQLException {
+            ConnectionManager cm = new ConnectionManager(shard);
+            cm.createReadConnection();
+
+            String getAppointment = "SELECT PatientName, CaregiverName, VaccineName, Date, Time "
+                    + "FROM Appointments WHERE AppointmentID = ?";
+            try {
+                PreparedStatement statement = cm.prepareStatement(getAppointment);
+                statement.setInt(1, this.appointmentId);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return null;
+                    }
+                    return new Appointment(this.appointmentId, resultSet.getString("PatientName"),
+                            resultSet.getString("CaregiverName"), resultSet.getString("VaccineName"),
+                            resultSet.getDate("Date"), resultSet.getString("Time"));
+                }
+            } finally {
+                cm.closeConnection();
+            }
+        }
+    }
+
+    // Frees the caregiver's slot on the date again and returns their free slots for the index.
+    // A slot of -1, an appointment time that is no longer a slot, has nothing to give back.
+    static long releaseSlot(ConnectionManager cm, Date date, String caregiverName, int slot) throws SQLException {
+        if (slot < 0) {
+            return AvailabilityIndex.readFree(cm, date, caregiverName);
+        }
+        PreparedStatement availStmt = cm.prepareStatement(
+                "INSERT INTO Availabilities (Time, Username, Slots, Booked) VALUES (?, ?, ?, 0) "
+                        + "ON CONFLICT(Time, Username) DO UPDATE SET Booked = Availabilities.Booked & ~excluded.Slots");
+        availStmt.setDate(1, date);
+        availStmt.setString(2, caregiverName);
+        availStmt.setLong(3, Slots.bit(slot));
+        availStmt.executeUpdate();
+        return AvailabilityIndex.readFree(cm, date, caregiverName);
+    }
+
+    static class SlotClaim {
+        final String caregiverName;
+        final int slot;
+
+        SlotClaim(String caregiverName, int slot) {
+            this.caregiverName = caregiverName;
+            this.slot = slot;
+        }
+    }
+
+    // Thrown when a reservation cannot be made; the message is meant for the user
+    public static class UnavailableException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public UnavailableException(String message) {
+            super(message);
+        }
+    }
+}
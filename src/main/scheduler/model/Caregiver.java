@@ -1,10 +1,20 @@
 package scheduler.model;
 
+import scheduler.availability.AvailabilityIndex;
+import scheduler.availability.Slots;
 import scheduler.db.ConnectionManager;
+import scheduler.db.ShardRouter;
 import scheduler.util.Util;
 
 import java.sql.*;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 public class Caregiver {
     private final String username;
@@ -37,38 +47,86 @@ public class Caregiver {
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
         String addCaregiver = "INSERT INTO Caregivers VALUES (? , ?, ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addCaregiver);
-            statement.setString(1, this.username);
-            statement.setBytes(2, this.salt);
-            statement.setBytes(3, this.hash);
-            statement.executeUpdate();
+            ConnectionManager.runInTransaction(cm -> {
+                PreparedStatement statement = cm.prepareStatement(addCaregiver);
+                statement.setString(1, this.username);
+                statement.setBytes(2, this.salt);
+                statement.setBytes(3, this.hash);
+                return statement.executeUpdate();
+            });
         } catch (SQLException e) {
             throw new SQLException();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    public void uploadAvailability(Date d) throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String addAvailability = "INSERT INTO Availabilities VALUES (? , ?)";
-        try {
-            PreparedStatement statement = con.prepareStatement(addAvailability);
+    // Offers the given slots (a bitmask, see Slots) on the date in addition to any already offered.
+    // Slots that are already booked stay booked.
+    public void uploadAvailability(Date d, long slots) throws SQLException {
+        long free = ConnectionManager.runInTransaction(d, cm -> {
+            PreparedStatement statement = cm.prepareStatement(
+                    "INSERT INTO Availabilities (Time, Username, Slots, Booked) VALUES (?, ?, ?, 0) "
+                            + "ON CONFLICT(Time, Username) DO UPDATE SET Slots = Availabilities.Slots | excluded.Slots");
             statement.setDate(1, d);
             statement.setString(2, this.username);
+            statement.setLong(3, slots);
             statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new SQLException();
-        } finally {
-            cm.closeConnection();
+            return AvailabilityIndex.readFree(cm, d, this.username);
+        });
+        AvailabilityIndex.getInstance().set(d, this.username, free);
+        Waitlist.getInstance().dateChanged(d);
+    }
+
+    // Offers every slot of every date from start to end (inclusive) that falls on one of the given
+    // weekdays, with a single batched insert in one transaction per shard the dates fall on. Dates
+    // the caregiver already has slots on are skipped. Returns the number of dates added.
+    public int uploadAvailabilityRange(Date start, Date end, Set<DayOfWeek> weekdays) throws SQLException {
+        if (end.before(start)) {
+            throw new IllegalArgumentException("End date cannot be before start date!");
+        }
+        Map<Integer, List<Date>> byShard = new TreeMap<>();
+        for (LocalDate day = start.toLocalDate(); !day.isAfter(end.toLocalDate()); day = day.plusDays(1)) {
+            if (weekdays.contains(day.getDayOfWeek())) {
+                Date d = Date.valueOf(day);
+                byShard.computeIfAbsent(ShardRouter.shardOf(d), shard -> new ArrayList<>()).add(d);
+            }
+        }
+
+        int added = 0;
+        for (Map.Entry<Integer, List<Date>> shard : byShard.entrySet()) {
+            added += uploadAvailabilityRange(shard.getKey(), shard.getValue());
         }
+        return added;
+    }
+
+    private int uploadAvailabilityRange(int shard, List<Date> dates) throws SQLException {
+        List<Date> added = ConnectionManager.runInTransaction(shard, cm -> {
+            PreparedStatement statement = cm.prepareStatement(
+                    "INSERT INTO Availabilities (Time, Username, Slots, Booked) VALUES (?, ?, ?, 0) "
+                            + "ON CONFLICT(Time, Username) DO NOTHING");
+            for (Date d : dates) {
+                statement.setDate(1, d);
+                statement.setString(2, this.username);
+                statement.setLong(3, Slots.ALL);
+                statement.addBatch();
+            }
+            int[] counts = statement.executeBatch();
+            List<Date> inserted = new ArrayList<>();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    inserted.add(dates.get(i));
+                }
+            }
+            return inserted;
+        });
+
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        for (Date d : added) {
+            index.add(d, this.username, Slots.ALL);
+            Waitlist.getInstance().dateChanged(d);
+        }
+        return added.size();
     }
 
     public static class CaregiverBuilder {
@@ -100,30 +158,34 @@ public class Caregiver {
 
         public Caregiver get() throws SQLException {
             ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
+            cm.createReadConnection();
 
             String getCaregiver = "SELECT Salt, Hash FROM Caregivers WHERE Username = ?";
             try {
-                PreparedStatement statement = con.prepareStatement(getCaregiver);
+                PreparedStatement statement = cm.prepareStatement(getCaregiver);
                 statement.setString(1, this.username);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    byte[] salt = resultSet.getBytes("Salt");
-                    // we need to call Util.trim() to get rid of the paddings,
-                    // try to remove the use of Util.trim() and you'll see :)
-                    byte[] hash = Util.trim(resultSet.getBytes("Hash"));
-                    // check if the password matches
-                    byte[] calculatedHash = Util.generateHash(password, salt);
-                    if (!Arrays.equals(hash, calculatedHash)) {
+                byte[] salt;
+                byte[] hash;
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (!resultSet.next()) {
                         return null;
-                    } else {
-                        this.salt = salt;
-                        this.hash = hash;
-                        cm.closeConnection();
-                        return new Caregiver(this);
                     }
+                    salt = resultSet.getBytes("Salt");
+                    // we need to call Util.trim() to get rid of the paddings,
+                    // try to remove the use of Util.trim() and you'll see :)
+                    hash = Util.trim(resultSet.getBytes("Hash"));
+                }
+                // hand the connection back before the (slow) hash check
+                cm.closeConnection();
+                // check if the password matches
+                byte[] calculatedHash = Util.generateHashAsync(password, salt).join();
+                if (!Arrays.equals(hash, calculatedHash)) {
+                    return null;
+                } else {
+                    this.salt = salt;
+                    this.hash = hash;
+                    return new Caregiver(this);
                 }
-                return null;
             } catch (SQLException e) {
                 throw new SQLException();
             } finally {
@@ -0,0 +1,142 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.IdAllocator;
+import scheduler.db.ShardRouter;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * A caregiver slot and a vaccine dose set aside for a patient for HoldSeconds while they make up
+ * their mind. Placing a hold takes the slot and the dose on reserve's own path (see
+ * {@link Appointment#claim}) but records a row in Holds instead of Appointments; confirming it
+ * turns the row into an appointment. Holds that are not confirmed in time are released by
+ * {@link HoldExpiry}.
+ */
+public class Hold {
+    static final long TTL_MILLIS = Math.max(1, Util.intEnv("HoldSeconds", 300)) * 1000L;
+
+    private static final IdAllocator holdIds = new IdAllocator("Holds",
+            "Holds", "HoldID", Util.intEnv("IdBlockSize", 100));
+
+    private final int holdId;
+    private final String patientName;
+    private final String caregiverName;
+    private final String vaccineName;
+    private final Date date;
+    private final String time;
+    private final long expires;
+
+    Hold(int holdId, String patientName, String caregiverName, String vaccineName,
+         Date date, String time, long expires) {
+        this.holdId = holdId;
+        this.patientName = patientName;
+        this.caregiverName = caregiverName;
+        this.vaccineName = vaccineName;
+        this.date = date;
+        this.time = time;
+        this.expires = expires;
+    }
+
+    // Getters
+    public int getHoldId() { return holdId; }
+    public String getPatientName() { return patientName; }
+    public String getCaregiverName() { return caregiverName; }
+    public String getVaccineName() { return vaccineName; }
+    public Date getDate() { return date; }
+    public String getTime() { return time; }
+    // when the hold runs out, in milliseconds since the epoch
+    public long getExpires() { return expires; }
+
+    // Takes the earliest free slot of an available caregiver and one dose of the vaccine for the
+    // patient until the hold expires
+    public static Hold place(String patientName, Date date, String vaccineName)
+            throws SQLException, Appointment.UnavailableException {
+        Hold hold = Appointment.claim(date, vaccineName, holdIds, (cm, holdId, caregiverName, time) -> {
+            Hold placed = new Hold(holdId, patientName, caregiverName, vaccineName, date, time,
+                    System.currentTimeMillis() + TTL_MILLIS);
+
+            PreparedStatement insertStmt = cm.prepareStatement(
+                    "INSERT INTO Holds(HoldID, PatientName, CaregiverName, VaccineName, Date, Time, Expires) "
+                            + "VALUES (?, ?, ?, ?, ?, ?, ?)");
+            insertStmt.setInt(1, placed.holdId);
+            insertStmt.setString(2, placed.patientName);
+            insertStmt.setString(3, placed.caregiverName);
+            insertStmt.setString(4, placed.vaccineName);
+            insertStmt.setDate(5, placed.date);
+            insertStmt.setString(6, placed.time);
+            insertStmt.setLong(7, placed.expires);
+            insertStmt.executeUpdate();
+            return placed;
+        });
+        HoldExpiry.getInstance().schedule(hold);
+        return hold;
+    }
+
+    // Turns the patient's hold into an appointment. The slot and the dose were taken when the
+    // hold was placed, so this only moves the row, within the shard of the hold's date.
+    public static Appointment confirm(int holdId, String patientName)
+            throws SQLException, Appointment.UnavailableException {
+        Hold located = locate(holdId);
+        if (located == null) {
+            throw new Appointment.UnavailableException("Hold ID " + holdId + " does not exist");
+        }
+        int appointmentId = Appointment.nextId();
+        return ConnectionManager.runInTransaction(located.date, cm -> {
+            Hold hold = find(cm, holdId);
+            if (hold == null || !hold.patientName.equals(patientName)) {
+                throw new Appointment.UnavailableException("Hold ID " + holdId + " does not exist");
+            }
+            if (hold.expires <= System.currentTimeMillis()) {
+                throw new Appointment.UnavailableException("Hold ID " + holdId + " has expired");
+            }
+            // whoever deletes the row owns the hold; if expiry got there first, the slot and the
+            // dose have already been given back
+            PreparedStatement deleteStmt = cm.prepareStatement("DELETE FROM Holds WHERE HoldID = ?");
+            deleteStmt.setInt(1, holdId);
+            if (deleteStmt.executeUpdate() != 1) {
+                throw new Appointment.UnavailableException("Hold ID " + holdId + " has expired");
+            }
+            return Appointment.insert(cm, appointmentId, hold.patientName, hold.caregiverName,
+                    hold.vaccineName, hold.date, hold.time);
+        });
+    }
+
+    // The hold with the ID on whichever shard has it, or null
+    private static Hold locate(int holdId) throws SQLException {
+        List<Hold> found = ShardRouter.forEachShard(shard -> {
+            ConnectionManager cm = new ConnectionManager(shard);
+            cm.createReadConnection();
+            try {
+                return find(cm, holdId);
+            } finally {
+                cm.closeConnection();
+            }
+        });
+        for (Hold hold : found) {
+            if (hold != null) {
+                return hold;
+            }
+        }
+        return null;
+    }
+
+    private static Hold find(ConnectionManager cm, int holdId) throws SQLException {
+        PreparedStatement statement = cm.prepareStatement(
+                "SELECT PatientName, CaregiverName, VaccineName, Date, Time, Expires FROM Holds WHERE HoldID = ?");
+        statement.setInt(1, holdId);
+        try (ResultSet rs = statement.executeQuery()) {
+            return rs.next() ? read(holdId, rs) : null;
+        }
+    }
+
+    static Hold read(int holdId, ResultSet rs) throws SQLException {
+        return new Hold(holdId, rs.getString("PatientName"), rs.getString("CaregiverName"),
+                rs.getString("VaccineName"), rs.getDate("Date"), rs.getString("Time"), rs.getLong("Expires"));
+    }
+}
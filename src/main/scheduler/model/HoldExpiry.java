@@ -0,0 +1,153 @@
+package scheduler.model;
+
+import scheduler.availability.AssignmentStrategy;
+import scheduler.availability.AvailabilityIndex;
+import scheduler.availability.Slots;
+import scheduler.db.ConnectionManager;
+import scheduler.db.ShardRouter;
+import scheduler.inventory.DoseInventory;
+import scheduler.metrics.Metrics;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Releases holds that were not confirmed in time. Every hold waits in a delay queue until it is
+ * due; a single background thread then takes every hold that has come due and releases them
+ * together in one transaction per shard, so a wave of expiries costs one commit rather than one
+ * each and the Holds table is never polled. A hold that was confirmed in the meantime is simply
+ * gone from the table and is skipped.
+ */
+public class HoldExpiry {
+    private static final HoldExpiry instance = new HoldExpiry();
+
+    // the most holds released in one transaction
+    private static final int BATCH_SIZE = 1000;
+    private static final long RETRY_MILLIS = 1000;
+
+    private final DelayQueue<Due> queue = new DelayQueue<>();
+
+    private HoldExpiry() {
+        Metrics.gauge("holds pending", () -> Integer.toString(queue.size()));
+        Thread releaser = new Thread(this::run, "hold-expiry");
+        releaser.setDaemon(true);
+        releaser.start();
+    }
+
+    public static HoldExpiry getInstance() {
+        return instance;
+    }
+
+    void schedule(Hold hold) {
+        queue.add(new Due(hold, hold.getExpires()));
+    }
+
+    // Schedules the holds left in the table by an earlier run; those already past due are
+    // released straight away
+    public void load() throws SQLException {
+        ShardRouter.forEachShard(shard -> {
+            ConnectionManager cm = new ConnectionManager(shard);
+            cm.createReadConnection();
+            try {
+                PreparedStatement statement = cm.prepareStatement(
+                        "SELECT HoldID, PatientName, CaregiverName, VaccineName, Date, Time, Expires FROM Holds");
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        schedule(Hold.read(rs.getInt("HoldID"), rs));
+                    }
+                }
+            } finally {
+                cm.closeConnection();
+            }
+            return null;
+        });
+    }
+
+    private void run() {
+        List<Due> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            // one transaction per shard the holds' dates fall on
+            Map<Integer, List<Due>> byShard = new TreeMap<>();
+            for (Due due : batch) {
+                byShard.computeIfAbsent(ShardRouter.shardOf(due.hold.getDate()), s -> new ArrayList<>()).add(due);
+            }
+            for (Map.Entry<Integer, List<Due>> shard : byShard.entrySet()) {
+                try {
+                    release(shard.getKey(), shard.getValue());
+                } catch (SQLException | RuntimeException e) {
+                    System.out.println("Could not release expired holds, retrying: " + e.getMessage());
+                    long retry = System.currentTimeMillis() + RETRY_MILLIS;
+                    for (Due due : shard.getValue()) {
+                        queue.add(new Due(due.hold, retry));
+                    }
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void release(int shard, List<Due> batch) throws SQLException {
+        // the free slots of each released hold's caregiver, for the index once committed
+        long[] free = new long[batch.size()];
+        boolean[] released = new boolean[batch.size()];
+        ConnectionManager.runInTransaction(shard, cm -> {
+            PreparedStatement deleteStmt = cm.prepareStatement("DELETE FROM Holds WHERE HoldID = ?");
+            for (int i = 0; i < batch.size(); i++) {
+                Hold hold = batch.get(i).hold;
+                deleteStmt.setInt(1, hold.getHoldId());
+                released[i] = deleteStmt.executeUpdate() == 1;
+                if (released[i]) {
+                    free[i] = Appointment.releaseSlot(cm, hold.getDate(), hold.getCaregiverName(),
+                            Slots.slotOf(hold.getTime()));
+                }
+            }
+            return null;
+        });
+
+        for (int i = 0; i < batch.size(); i++) {
+            if (released[i]) {
+                Hold hold = batch.get(i).hold;
+                // the dose was taken from the allotment, so that is where it goes back to
+                DoseInventory.getInstance().giveBack(hold.getVaccineName());
+                AvailabilityIndex.getInstance().set(hold.getDate(), hold.getCaregiverName(), free[i]);
+                AssignmentStrategy.getInstance().released(hold.getDate(), hold.getCaregiverName());
+                Waitlist.getInstance().dateChanged(hold.getDate());
+                Waitlist.getInstance().vaccineChanged(hold.getVaccineName());
+            }
+        }
+    }
+
+    private static class Due implements Delayed {
+        private final Hold hold;
+        private final long at;
+
+        Due(Hold hold, long at) {
+            this.hold = hold;
+            this.at = at;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(at - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(at, ((Due) other).at);
+        }
+    }
+}
@@ -23,20 +23,17 @@ public class Patient {
     public byte[] getHash() { return hash; }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
         String sql = "INSERT INTO Patients(Username, Salt, Hash) VALUES (?, ?, ?)";
         try {
-            PreparedStatement ps = con.prepareStatement(sql);
-            ps.setString(1, this.username);
-            ps.setBytes(2, this.salt);
-            ps.setBytes(3, this.hash);
-            ps.executeUpdate();
+            ConnectionManager.runInTransaction(cm -> {
+                PreparedStatement ps = cm.prepareStatement(sql);
+                ps.setString(1, this.username);
+                ps.setBytes(2, this.salt);
+                ps.setBytes(3, this.hash);
+                return ps.executeUpdate();
+            });
         } catch (SQLException e) {
             throw new SQLException();
-        } finally {
-            cm.closeConnection();
         }
     }
 
@@ -71,25 +68,28 @@ public class Patient {
 
         public Patient get() throws SQLException {
             ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
+            cm.createReadConnection();
 
             String sql = "SELECT Salt, Hash FROM Patients WHERE Username = ?";
             try {
-                PreparedStatement ps = con.prepareStatement(sql);
+                PreparedStatement ps = cm.prepareStatement(sql);
                 ps.setString(1, this.username);
-                ResultSet rs = ps.executeQuery();
-                while (rs.next()) {
-                    byte[] salt = rs.getBytes("Salt");
-                    byte[] hash = Util.trim(rs.getBytes("Hash"));
-                    byte[] calculatedHash = Util.generateHash(password, salt);
+                byte[] salt;
+                byte[] hash;
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return null;
+                    salt = rs.getBytes("Salt");
+                    hash = Util.trim(rs.getBytes("Hash"));
+                }
+                // hand the connection back before the (slow) hash check
+                cm.closeConnection();
+                byte[] calculatedHash = Util.generateHashAsync(password, salt).join();
 
-                    if (!Arrays.equals(hash, calculatedHash)) return null;
+                if (!Arrays.equals(hash, calculatedHash)) return null;
 
-                    this.salt = salt;
-                    this.hash = hash;
-                    return new Patient(new PatientBuilder(username, salt, hash));
-                }
-                return null;
+                this.salt = salt;
+                this.hash = hash;
+                return new Patient(new PatientBuilder(username, salt, hash));
             } finally {
                 cm.closeConnection();
             }
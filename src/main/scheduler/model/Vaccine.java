@@ -1,11 +1,13 @@
 package scheduler.model;
 
 import scheduler.db.ConnectionManager;
+import scheduler.inventory.DoseInventory;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Vaccine {
     private final String vaccineName;
@@ -26,70 +28,93 @@ public class Vaccine {
         return vaccineName;
     }
 
+    // The doses left when this vaccine was read, including those in the local dose allotment
     public int getAvailableDoses() {
         return availableDoses;
     }
 
     public void saveToDB() throws SQLException {
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
         String addDoses = "INSERT INTO vaccines VALUES (?, ?)";
         try {
-            PreparedStatement statement = con.prepareStatement(addDoses);
-            statement.setString(1, this.vaccineName);
-            statement.setInt(2, this.availableDoses);
-            statement.executeUpdate();
+            ConnectionManager.runInTransaction(cm -> {
+                PreparedStatement statement = cm.prepareStatement(addDoses);
+                statement.setString(1, this.vaccineName);
+                statement.setInt(2, this.availableDoses);
+                return statement.executeUpdate();
+            });
+            DoseInventory.getInstance().tableChanged();
+            Waitlist.getInstance().vaccineChanged(this.vaccineName);
         } catch (SQLException e) {
             throw new SQLException();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    // Increment the available doses
+    // Increment the available doses. The update is relative to the stored count, so doses added
+    // or taken by others since this vaccine was read are not lost.
     public void increaseAvailableDoses(int num) throws SQLException {
         if (num <= 0) {
             throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses += num;
-
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
 
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
+        String addDoses = "UPDATE Vaccines SET Doses = Doses + ? WHERE Name = ?";
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
+            ConnectionManager.runInTransaction(cm -> {
+                PreparedStatement statement = cm.prepareStatement(addDoses);
+                statement.setInt(1, num);
+                statement.setString(2, this.vaccineName);
+                return statement.executeUpdate();
+            });
+            this.availableDoses += num;
+            DoseInventory.getInstance().tableChanged();
+            Waitlist.getInstance().vaccineChanged(this.vaccineName);
         } catch (SQLException e) {
             throw new SQLException();
-        } finally {
-            cm.closeConnection();
         }
     }
 
-    // Decrement the available doses
+    // Decrement the available doses, failing if the stored count is lower than num
     public void decreaseAvailableDoses(int num) throws SQLException {
-        if (this.availableDoses - num < 0) {
-            throw new IllegalArgumentException("Not enough available doses!");
+        if (num <= 0) {
+            throw new IllegalArgumentException("Argument cannot be negative!");
         }
-        this.availableDoses -= num;
-        ConnectionManager cm = new ConnectionManager();
-        Connection con = cm.createConnection();
-
-        String removeAvailability  = "UPDATE vaccines SET Doses = ? WHERE name = ?;";
+        String removeDoses = "UPDATE Vaccines SET Doses = Doses - ? WHERE Name = ? AND Doses >= ?";
         try {
-            PreparedStatement statement = con.prepareStatement(removeAvailability);
-            statement.setInt(1, this.availableDoses);
-            statement.setString(2, this.vaccineName);
-            statement.executeUpdate();
+            ConnectionManager.runInTransaction(cm -> {
+                PreparedStatement statement = cm.prepareStatement(removeDoses);
+                statement.setInt(1, num);
+                statement.setString(2, this.vaccineName);
+                statement.setInt(3, num);
+                if (statement.executeUpdate() != 1) {
+                    throw new IllegalArgumentException("Not enough available doses!");
+                }
+                return null;
+            });
+            this.availableDoses -= num;
+            DoseInventory.getInstance().tableChanged();
         } catch (SQLException e) {
             throw new SQLException();
+        }
+    }
+
+    // Every vaccine with its exact number of doses left, in name order
+    public static List<Vaccine> getAll() throws SQLException {
+        ConnectionManager cm = new ConnectionManager();
+        cm.createReadConnection();
+
+        List<Vaccine> vaccines = new ArrayList<>();
+        try {
+            PreparedStatement statement = cm.prepareStatement("SELECT Name, Doses FROM Vaccines ORDER BY Name");
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    String name = resultSet.getString("Name");
+                    vaccines.add(new VaccineBuilder(name,
+                            resultSet.getInt("Doses") + DoseInventory.getInstance().allotted(name)).build());
+                }
+            }
         } finally {
             cm.closeConnection();
         }
+        return vaccines;
     }
 
     @Override
@@ -124,17 +149,18 @@ public class Vaccine {
 
         public Vaccine get() throws SQLException {
             ConnectionManager cm = new ConnectionManager();
-            Connection con = cm.createConnection();
+            cm.createReadConnection();
 
             String getVaccine = "SELECT Name, Doses FROM Vaccines WHERE Name = ?";
             try {
-                PreparedStatement statement = con.prepareStatement(getVaccine);
+                PreparedStatement statement = cm.prepareStatement(getVaccine);
                 statement.setString(1, this.vaccineName);
-                ResultSet resultSet = statement.executeQuery();
-                while (resultSet.next()) {
-                    this.availableDoses = resultSet.getInt("Doses");
-                    cm.closeConnection();
-                    return new Vaccine(this);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        this.availableDoses = resultSet.getInt("Doses")
+                                + DoseInventory.getInstance().allotted(this.vaccineName);
+                        return new Vaccine(this);
+                    }
                 }
                 return null;
             } catch (SQLException e) {
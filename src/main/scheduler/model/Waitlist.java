@@ -0,0 +1,309 @@
+package scheduler.model;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.IdAllocator;
+import scheduler.db.ShardRouter;
+import scheduler.util.Util;
+
+import java.io.PrintStream;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Patients waiting for a date and vaccine that had no free slot or no dose left. Entries are
+ * kept in the Waitlist table and served first come, first served. Nothing polls for capacity:
+ * the writes that can create some (uploaded availability, added doses, a cancellation, an
+ * expired hold) tell the waitlist which dates or vaccines changed, and a background thread
+ * collects those changes and books the waiting patients they can now serve. Each booking and
+ * the update of its entry happen in one transaction.
+ *
+ * A patient learns the outcome from waitlist_status, or straight away in any session that
+ * joined the waitlist for them and is still open.
+ */
+public class Waitlist {
+    private static final Waitlist instance = new Waitlist();
+
+    // the most entries read for one date or vaccine per round of matching
+    private static final int BATCH_SIZE = 100;
+
+    private static final IdAllocator entryIds = new IdAllocator("Waitlist",
+            "Waitlist", "EntryID", Util.intEnv("IdBlockSize", 100));
+
+    // dates (LocalDate) and vaccines (String) whose capacity changed since the last round
+    private final LinkedBlockingQueue<Object> changes = new LinkedBlockingQueue<>();
+    private final ConcurrentHashMap<String, CopyOnWriteArrayList<PrintStream>> subscribers = new ConcurrentHashMap<>();
+
+    private Waitlist() {
+        Thread matcher = new Thread(this::run, "waitlist-matcher");
+        matcher.setDaemon(true);
+        matcher.start();
+    }
+
+    public static Waitlist getInstance() {
+        return instance;
+    }
+
+    // Puts the patient on the waitlist and returns the entry ID, or -1 if they are already
+    // waiting for that date and vaccine. Booking is attempted right away, in case capacity
+    // appeared since the patient last tried.
+    public int join(String patientName, Date date, String vaccineName, PrintStream notify) throws SQLException {
+        int entryId = Math.toIntExact(entryIds.nextId());
+        boolean joined = ConnectionManager.runInTransaction(date, cm -> {
+            PreparedStatement existing = cm.prepareStatement(
+                    "SELECT EntryID FROM Waitlist WHERE PatientName = ? AND Date = ? AND VaccineName = ? AND Status = 'waiting'");
+            existing.setString(1, patientName);
+            existing.setDate(2, date);
+            existing.setString(3, vaccineName);
+            try (ResultSet rs = existing.executeQuery()) {
+                if (rs.next()) {
+                    return false;
+                }
+            }
+            PreparedStatement insert = cm.prepareStatement(
+                    "INSERT INTO Waitlist (EntryID, PatientName, VaccineName, Date, Status) VALUES (?, ?, ?, ?, 'waiting')");
+            insert.setInt(1, entryId);
+            insert.setString(2, patientName);
+            insert.setString(3, vaccineName);
+            insert.setDate(4, date);
+            insert.executeUpdate();
+            return true;
+        });
+        if (!joined) {
+            return -1;
+        }
+        if (notify != null) {
+            subscribers.computeIfAbsent(patientName, p -> new CopyOnWriteArrayList<>()).addIfAbsent(notify);
+        }
+        dateChanged(date);
+        return entryId;
+    }
+
+    // The patient's entries, oldest first, described for display
+    public List<String> status(String patientName) throws SQLException {
+        // every shard may have some of the patient's entries
+        TreeMap<Integer, String> entries = new TreeMap<>();
+        for (Map<Integer, String> shard : ShardRouter.forEachShard(shard -> status(shard, patientName))) {
+            entries.putAll(shard);
+        }
+        return new ArrayList<>(entries.values());
+    }
+
+    private static Map<Integer, String> status(int shard, String patientName) throws SQLException {
+        Map<Integer, String> entries = new HashMap<>();
+        ConnectionManager cm = new ConnectionManager(shard);
+        cm.createReadConnection();
+        try {
+            PreparedStatement statement = cm.prepareStatement(
+                    "SELECT EntryID, VaccineName, Date, Status, AppointmentID FROM Waitlist WHERE PatientName = ? ORDER BY EntryID");
+            statement.setString(1, patientName);
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    String entry = "Entry " + rs.getInt("EntryID") + " " + rs.getDate("Date") + " "
+                            + rs.getString("VaccineName") + " " + rs.getString("Status");
+                    int appointmentId = rs.getInt("AppointmentID");
+                    if (!rs.wasNull()) {
+                        entry += ", Appointment ID " + appointmentId;
+                    }
+                    entries.put(rs.getInt("EntryID"), entry);
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return entries;
+    }
+
+    // Stops notifying the stream about the patient's bookings
+    public void unsubscribe(String patientName, PrintStream notify) {
+        CopyOnWriteArrayList<PrintStream> streams = subscribers.get(patientName);
+        if (streams != null) {
+            streams.remove(notify);
+        }
+    }
+
+    // Called after a write that may have freed slots on the date has committed
+    public void dateChanged(Date date) {
+        changes.add(date.toLocalDate());
+    }
+
+    // Called after a write that may have added doses of the vaccine has committed
+    public void vaccineChanged(String vaccineName) {
+        changes.add(vaccineName);
+    }
+
+    // Queues a round of matching for every date someone is waiting for, for entries left by an
+    // earlier run
+    public void load() throws SQLException {
+        ShardRouter.forEachShard(shard -> {
+            ConnectionManager cm = new ConnectionManager(shard);
+            cm.createReadConnection();
+            try {
+                PreparedStatement statement = cm.prepareStatement(
+                        "SELECT DISTINCT Date FROM Waitlist WHERE Status = 'waiting'");
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        dateChanged(rs.getDate("Date"));
+                    }
+                }
+            } finally {
+                cm.closeConnection();
+            }
+            return null;
+        });
+    }
+
+    private void run() {
+        List<Object> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(changes.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            changes.drainTo(batch);
+            // many changes to the same date or vaccine need only one round of matching
+            for (Object changed : new LinkedHashSet<>(batch)) {
+                try {
+                    if (changed instanceof LocalDate) {
+                        match("SELECT EntryID, PatientName, VaccineName, Date FROM Waitlist "
+                                + "WHERE Status = 'waiting' AND Date = ? ORDER BY EntryID LIMIT " + BATCH_SIZE,
+                                Date.valueOf((LocalDate) changed));
+                    } else {
+                        match("SELECT EntryID, PatientName, VaccineName, Date FROM Waitlist "
+                                + "WHERE Status = 'waiting' AND VaccineName = ? ORDER BY EntryID LIMIT " + BATCH_SIZE,
+                                changed);
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    // the entries stay waiting and are tried again on the next change
+                    System.out.println("Could not match waitlist entries: " + e.getMessage());
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    // Books the waiting entries the query finds, in order, until capacity runs out
+    private void match(String query, Object key) throws SQLException {
+        List<Entry> waiting = new ArrayList<>();
+        if (key instanceof Date) {
+            waiting.addAll(findWaiting(ShardRouter.shardOf((Date) key), query, key));
+        } else {
+            // a vaccine's entries are spread over every shard; the oldest of them go first
+            for (List<Entry> shard : ShardRouter.forEachShard(shard -> findWaiting(shard, query, key))) {
+                waiting.addAll(shard);
+            }
+            waiting.sort(Comparator.comparingInt(entry -> entry.entryId));
+        }
+        boolean more = waiting.size() >= BATCH_SIZE;
+        if (waiting.size() > BATCH_SIZE) {
+            waiting = waiting.subList(0, BATCH_SIZE);
+        }
+
+        // a date without slots or a vaccine without doses cannot serve later entries either
+        Set<LocalDate> fullDates = new HashSet<>();
+        Set<String> emptyVaccines = new HashSet<>();
+        for (Entry entry : waiting) {
+            if (fullDates.contains(entry.date.toLocalDate()) || emptyVaccines.contains(entry.vaccineName)) {
+                more = false;
+                continue;
+            }
+            try {
+                Appointment appointment = Appointment.reserve(entry.patientName, entry.date, entry.vaccineName,
+                        (tx, booked) -> markBooked(tx, entry.entryId, booked.getAppointmentId()));
+                notifyBooked(entry, appointment);
+            } catch (Appointment.UnavailableException e) {
+                if (e.getMessage().startsWith("Not enough")) {
+                    emptyVaccines.add(entry.vaccineName);
+                } else if (e.getMessage().startsWith("No caregiver")) {
+                    fullDates.add(entry.date.toLocalDate());
+                }
+                more = false;
+            }
+        }
+        if (more) {
+            // every entry was served and there may be more waiting behind them
+            changes.add(key instanceof Date ? ((Date) key).toLocalDate() : key);
+        }
+    }
+
+    // The waiting entries the query finds on the shard
+    private static List<Entry> findWaiting(int shard, String query, Object key) throws SQLException {
+        List<Entry> waiting = new ArrayList<>();
+        ConnectionManager cm = new ConnectionManager(shard);
+        cm.createReadConnection();
+        try {
+            PreparedStatement statement = cm.prepareStatement(query);
+            if (key instanceof Date) {
+                statement.setDate(1, (Date) key);
+            } else {
+                statement.setString(1, (String) key);
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    waiting.add(new Entry(rs.getInt("EntryID"), rs.getString("PatientName"),
+                            rs.getString("VaccineName"), rs.getDate("Date")));
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return waiting;
+    }
+
+    private static void markBooked(ConnectionManager cm, int entryId, int appointmentId)
+            throws SQLException, Appointment.UnavailableException {
+        PreparedStatement update = cm.prepareStatement(
+                "UPDATE Waitlist SET Status = 'booked', AppointmentID = ? WHERE EntryID = ? AND Status = 'waiting'");
+        update.setInt(1, appointmentId);
+        update.setInt(2, entryId);
+        if (update.executeUpdate() != 1) {
+            // served by another scheduler process meanwhile; rolls this booking back
+            throw new Appointment.UnavailableException("Waitlist entry " + entryId + " was already served");
+        }
+    }
+
+    private void notifyBooked(Entry entry, Appointment appointment) {
+        CopyOnWriteArrayList<PrintStream> streams = subscribers.get(entry.patientName);
+        if (streams == null) {
+            return;
+        }
+        for (PrintStream out : streams) {
+            out.println("Waitlist entry " + entry.entryId + " booked: Appointment ID " + appointment.getAppointmentId()
+                    + ", Caregiver username " + appointment.getCaregiverName() + ", Date " + appointment.getDate()
+                    + ", Time " + appointment.getTime());
+            // a session that has gone away stops being notified
+            if (out.checkError()) {
+                streams.remove(out);
+            }
+        }
+    }
+
+    private static class Entry {
+        private final int entryId;
+        private final String patientName;
+        private final String vaccineName;
+        private final Date date;
+
+        Entry(int entryId, String patientName, String vaccineName, Date date) {
+            this.entryId = entryId;
+            this.patientName = patientName;
+            this.vaccineName = vaccineName;
+            this.date = date;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package scheduler.script;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.availability.AssignmentStrategy;
+import scheduler.availability.AvailabilityIndex;
+import scheduler.db.ConnectionManager;
+import scheduler.db.IdAllocator;
+import scheduler.db.ShardRouter;
+import scheduler.inventory.DoseInventory;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays a file of commands, one per line, as a single session. All commands run on one
+ * pinned connection and their output goes through one large buffer, so a replay spends its
+ * time in the database rather than on console I/O or connection handoffs. With a group size
+ * of N, every N commands are committed together as one transaction per shard. Shard 0 commits
+ * first, so a shard that then fails to commit can leave leased doses unused but never lets an
+ * appointment through without its dose.
+ */
+public class ScriptRunner {
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private final int groupSize;
+
+    // groupSize 0 commits every command on its own, like an interactive session
+    public ScriptRunner(int groupSize) {
+        if (groupSize < 0) {
+            throw new IllegalArgumentException("Group size cannot be negative!");
+        }
+        this.groupSize = groupSize;
+    }
+
+    public void run(Path script) throws IOException, SQLException {
+        PrintStream out = new PrintStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out), OUTPUT_BUFFER_SIZE), false, StandardCharsets.UTF_8);
+        Session session = new Session(out);
+        List<Connection> cons = new ArrayList<>();
+        int inGroup = 0;
+        try (BufferedReader reader = Files.newBufferedReader(script, StandardCharsets.UTF_8)) {
+            for (int shard = 0; shard < ShardRouter.count(); shard++) {
+                Connection con = ConnectionManager.pinConnection(shard);
+                if (groupSize > 0) {
+                    con.setAutoCommit(false);
+                }
+                cons.add(con);
+            }
+            int lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || line.startsWith("#")) {
+                    continue;
+                }
+                if (groupSize > 0 && inGroup == 0) {
+                    DoseInventory.getInstance().beginGroup();
+                }
+                boolean more = Scheduler.execute(session, line);
+                if (groupSize > 0 && ++inGroup == groupSize) {
+                    commitGroup(cons, lineNumber, out);
+                    inGroup = 0;
+                }
+                if (!more) {
+                    break;
+                }
+            }
+            if (groupSize > 0 && inGroup > 0) {
+                commitGroup(cons, lineNumber, out);
+                inGroup = 0;
+            }
+        } finally {
+            out.flush();
+            for (int shard = 0; shard < ShardRouter.count(); shard++) {
+                ConnectionManager.unpinConnection(shard);
+            }
+            if (inGroup > 0) {
+                // unpinning rolled back the unfinished group, and with it any ID block and
+                // doses it leased
+                IdAllocator.invalidateAll();
+                DoseInventory.getInstance().rollbackGroup();
+            }
+        }
+    }
+
+    private static void commitGroup(List<Connection> cons, int lineNumber, PrintStream out) throws SQLException {
+        DoseInventory inventory = DoseInventory.getInstance();
+        int committed = 0;
+        try {
+            // surplus doses go back in the same transaction as the leases that took them
+            inventory.flush();
+            for (Connection con : cons) {
+                con.commit();
+                committed++;
+            }
+            inventory.commitGroup();
+        } catch (SQLException e) {
+            for (Connection con : cons.subList(committed, cons.size())) {
+                con.rollback();
+            }
+            out.println("Commands up to line " + lineNumber + " were rolled back: " + e.getMessage());
+            // the in-memory availability index, assignment state and dose allotment already saw
+            // the lost changes, and ID blocks leased by the group were rolled back with it.
+            // Vaccines and Sequences live on shard 0, so once shard 0 has committed the group's
+            // leases stand.
+            if (committed == 0) {
+                IdAllocator.invalidateAll();
+                inventory.rollbackGroup();
+            } else {
+                inventory.commitGroup();
+            }
+            AvailabilityIndex.getInstance().load();
+            AssignmentStrategy.getInstance().load();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package scheduler.search;
+
+import scheduler.availability.AvailabilityIndex;
+import scheduler.db.ConnectionManager;
+import scheduler.inventory.DoseInventory;
+import scheduler.metrics.Metrics;
+import scheduler.util.Util;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Answers search_caregiver_schedule from a bounded LRU cache of the caregivers free on each
+ * recently searched date and a copy of the Vaccines table. Each copy is stamped with the version
+ * of its source (see {@link AvailabilityIndex#version} and {@link DoseInventory#tableVersion})
+ * read before copying; the writes that change a date or the table bump the version once they
+ * commit, so a copy is only served while nothing it was made from has changed since. Doses held
+ * in the local allotment change with every reservation and are added to the copy when a search
+ * is answered, not cached.
+ */
+public class ScheduleSearch {
+    private static final ScheduleSearch instance = new ScheduleSearch();
+
+    private final int capacity = Math.max(1, Util.intEnv("SearchCacheSize", 256));
+    private final LinkedHashMap<LocalDate, Caregivers> byDate = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LocalDate, Caregivers> eldest) {
+            return size() > capacity;
+        }
+    };
+    private volatile Vaccines vaccines;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private ScheduleSearch() {
+        Metrics.gauge("search cache", this::describe);
+    }
+
+    public static ScheduleSearch getInstance() {
+        return instance;
+    }
+
+    // The caregivers free on the date with their free slots, in username order
+    public NavigableMap<String, Long> caregivers(Date date) {
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        long version = index.version(date);
+        Caregivers cached;
+        synchronized (byDate) {
+            cached = byDate.get(date.toLocalDate());
+        }
+        if (cached != null && cached.version == version) {
+            hits.increment();
+            return cached.slots;
+        }
+        misses.increment();
+        Caregivers fresh = new Caregivers(version, Collections.unmodifiableNavigableMap(index.slots(date)));
+        synchronized (byDate) {
+            byDate.put(date.toLocalDate(), fresh);
+        }
+        return fresh.slots;
+    }
+
+    // Every vaccine with its exact number of doses left, in name order
+    public NavigableMap<String, Integer> vaccines() throws SQLException {
+        DoseInventory inventory = DoseInventory.getInstance();
+        long version = inventory.tableVersion();
+        Vaccines cached = vaccines;
+        if (cached != null && cached.version == version) {
+            hits.increment();
+        } else {
+            misses.increment();
+            cached = new Vaccines(version, readVaccines());
+            vaccines = cached;
+        }
+        NavigableMap<String, Integer> doses = new TreeMap<>();
+        for (Map.Entry<String, Integer> vaccine : cached.doses.entrySet()) {
+            doses.put(vaccine.getKey(), vaccine.getValue() + inventory.allotted(vaccine.getKey()));
+        }
+        return doses;
+    }
+
+    private static NavigableMap<String, Integer> readVaccines() throws SQLException {
+        NavigableMap<String, Integer> doses = new TreeMap<>();
+        ConnectionManager cm = new ConnectionManager();
+        cm.createReadConnection();
+        try {
+            PreparedStatement statement = cm.prepareStatement("SELECT Name, Doses FROM Vaccines ORDER BY Name");
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    doses.put(rs.getString("Name"), rs.getInt("Doses"));
+                }
+            }
+        } finally {
+            cm.closeConnection();
+        }
+        return doses;
+    }
+
+    private String describe() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        int size;
+        synchronized (byDate) {
+            size = byDate.size();
+        }
+        return "SearchCache{dates=" + size + "/" + capacity + ", hits=" + hit + ", misses=" + (total - hit)
+                + ", hitRate=" + (total == 0 ? 0 : 100 * hit / total) + "%}";
+    }
+
+    private static class Caregivers {
+        private final long version;
+        private final NavigableMap<String, Long> slots;
+
+        Caregivers(long version, NavigableMap<String, Long> slots) {
+            this.version = version;
+            this.slots = slots;
+        }
+    }
+
+    private static class Vaccines {
+        private final long version;
+        private final NavigableMap<String, Integer> doses;
+
+        Vaccines(long version, NavigableMap<String, Integer> doses) {
+            this.version = version;
+            this.doses = doses;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package scheduler.server;
+
+import scheduler.Scheduler;
+import scheduler.Session;
+import scheduler.util.Util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the scheduler's line-based commands over TCP. Every connection gets its own
+ * {@link Session} and its own thread, and all of them share the database connection pool.
+ *
+ * At most {@code maxSessions} connections are served at once. Once that many are open the server
+ * stops accepting until one closes, so further clients wait in the listen backlog of
+ * {@code backlog} connections and are refused by the operating system beyond it.
+ */
+public class SchedulerServer {
+    private final int port;
+    private final int backlog;
+    private final Semaphore openSessions;
+    private final ExecutorService sessions;
+
+    public SchedulerServer(int port) {
+        this(port, Util.intEnv("MaxSessions", 512), Util.intEnv("ServerBacklog", 1024));
+    }
+
+    public SchedulerServer(int port, int maxSessions, int backlog) {
+        if (maxSessions <= 0 || backlog <= 0) {
+            throw new IllegalArgumentException("Session limit and backlog must be positive!");
+        }
+        this.port = port;
+        this.backlog = backlog;
+        this.openSessions = new Semaphore(maxSessions);
+        this.sessions = newSessionExecutor(maxSessions);
+    }
+
+    // Accepts connections until the server socket fails
+    public void run() throws IOException {
+        run(new ServerSocket(port, backlog));
+    }
+
+    void run(ServerSocket listening) throws IOException {
+        try (ServerSocket server = listening) {
+            System.out.println("Listening on port " + server.getLocalPort());
+            while (true) {
+                openSessions.acquireUninterruptibly();
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (IOException e) {
+                    openSessions.release();
+                    throw e;
+                }
+                sessions.execute(() -> {
+                    try {
+                        serve(socket);
+                    } finally {
+                        openSessions.release();
+                    }
+                });
+            }
+        } finally {
+            sessions.shutdownNow();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(
+                     new BufferedOutputStream(s.getOutputStream()), false, StandardCharsets.UTF_8)) {
+            s.setTcpNoDelay(true);
+            Session session = new Session(out);
+            Scheduler.printMenu(out);
+            while (true) {
+                out.print("> ");
+                out.flush();
+                String line = in.readLine();
+                if (line == null || !Scheduler.execute(session, line)) {
+                    break;
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // the client went away; nothing to clean up beyond closing the socket
+        }
+    }
+
+    // Idle sessions spend their time blocked in readLine(), which is what virtual threads are
+    // for; use them when the JVM has them and fall back to a pool of at most maxSessions platform
+    // threads, which never queues since run() does not accept more connections than that.
+    private static ExecutorService newSessionExecutor(int maxSessions) {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxSessions, maxSessions,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                        Thread t = new Thread(r, "session");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package scheduler.util;
 
+import scheduler.metrics.Metrics;
+
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import java.security.NoSuchAlgorithmException;
@@ -7,6 +9,14 @@ import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
 import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class Util {
 
@@ -14,30 +24,126 @@ public class Util {
     private static final int HASH_STRENGTH = 10;
     private static final int KEY_LENGTH = 16;
 
+    // SecureRandom is thread-safe, so one seeded instance serves every caller
+    private static final SecureRandom random = new SecureRandom();
+
+    // SecretKeyFactory is not thread-safe, so each thread looks one up once and keeps it
+    private static final ThreadLocal<SecretKeyFactory> keyFactory = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException();
+        }
+    });
+
+    // password hashing runs on its own bounded pool so a burst of logins queues up here
+    // instead of occupying the threads that serve other commands
+    private static final ExecutorService hashPool = createHashPool(
+            intEnv("HashThreads", Runtime.getRuntime().availableProcessors()),
+            intEnv("HashQueueSize", 1024));
+
+    // time spent waiting for a hashing thread vs. time spent hashing
+    private static final Metrics.Timer hashQueueTimer = Metrics.timer("hash queue");
+    private static final Metrics.Timer hashWorkTimer = Metrics.timer("hash compute");
+    private static final LongAdder hashRejected = new LongAdder();
+
     public static byte[] generateSalt() {
         // Generate a random cryptographic salt
-        SecureRandom random = new SecureRandom();
         byte[] salt = new byte[16];
         random.nextBytes(salt);
         return salt;
     }
 
+    // 8+ characters with an upper and a lower case letter, a digit and one of !@#?
+    public static boolean isStrongPassword(String password) {
+        if (password.length() < 8) return false;
+
+        boolean hasUpper = false;
+        boolean hasLower = false;
+        boolean hasDigit = false;
+        boolean hasSpecial = false;
+
+        for (char c : password.toCharArray()) {
+            if (Character.isUpperCase(c)) {
+                hasUpper = true;
+            } else if (Character.isLowerCase(c)) {
+                hasLower = true;
+            } else if (Character.isDigit(c)) {
+                hasDigit = true;
+            } else if ("!@#?".indexOf(c) >= 0) {
+                hasSpecial = true;
+            }
+        }
+
+        return hasUpper && hasLower && hasDigit && hasSpecial;
+    }
+
     public static byte[] generateHash(String password, byte[] salt) {
         // Specify the hash parameters
         KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, HASH_STRENGTH, KEY_LENGTH);
 
         // Generate the hash
-        SecretKeyFactory factory = null;
         byte[] hash = null;
         try {
-            factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            hash = factory.generateSecret(spec).getEncoded();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException ex) {
+            hash = keyFactory.get().generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException ex) {
             throw new IllegalStateException();
         }
         return hash;
     }
 
+    // Hashes the password on the hashing pool. The future fails with a
+    // RejectedExecutionException when the pool's queue is full.
+    public static CompletableFuture<byte[]> generateHashAsync(String password, byte[] salt) {
+        long submitted = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long started = System.nanoTime();
+                hashQueueTimer.record(started - submitted);
+                try {
+                    return generateHash(password, salt);
+                } finally {
+                    hashWorkTimer.record(System.nanoTime() - started);
+                }
+            }, hashPool);
+        } catch (RejectedExecutionException e) {
+            hashRejected.increment();
+            hashQueueTimer.recordError(System.nanoTime() - submitted);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public static long getHashCount() { return hashWorkTimer.getHistogram().getCount(); }
+    public static long getHashQueueNanos() { return hashQueueTimer.getHistogram().getTotalMicros() * 1000; }
+    public static long getHashWorkNanos() { return hashWorkTimer.getHistogram().getTotalMicros() * 1000; }
+    public static long getHashRejected() { return hashRejected.sum(); }
+
+    private static ExecutorService createHashPool(int threads, int queueSize) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread t = new Thread(r, "password-hasher-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    // Reads an integer setting from the environment, falling back to the default when unset
+    public static int intEnv(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Ignoring invalid " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
     public static byte[] trim(byte[] bytes)
     {
         int i = bytes.length - 1;
@@ -0,0 +1,104 @@
+package scheduler;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the commands of a whole visit end to end against a real database: accounts, availability,
+ * doses, a reservation, the appointment list and a cancellation.
+ */
+class SchedulerTest {
+
+    @BeforeAll
+    static void createDatabase() throws Exception {
+        TestDatabase.create();
+    }
+
+    @Test
+    void patientBooksAndCancelsAnAppointment() {
+        TestDatabase.Terminal caregiver = new TestDatabase.Terminal();
+        assertEquals("Created user carol\n", caregiver.run("create_caregiver carol Secret#123"));
+        assertEquals("Logged in as: carol\n", caregiver.run("login_caregiver carol Secret#123"));
+        assertEquals("Availability uploaded!\n", caregiver.run("upload_availability 2024-06-03"));
+        assertEquals("Doses updated!\n", caregiver.run("add_doses Pfizer 5"));
+
+        TestDatabase.Terminal patient = new TestDatabase.Terminal();
+        assertEquals("Created user pat\n", patient.run("create_patient pat Secret#123"));
+        assertEquals("Logged in as pat\n", patient.run("login_patient pat Secret#123"));
+        String search = patient.run("search_caregiver_schedule 2024-06-03");
+        assertTrue(search.contains("carol 32 free slots"), search);
+        assertTrue(search.contains("Pfizer 5"), search);
+
+        String reserved = patient.run("reserve 2024-06-03 Pfizer");
+        assertTrue(reserved.matches("Appointment ID \\d+, Caregiver username carol, Time 09:00\n"), reserved);
+        String id = reserved.replaceAll("Appointment ID (\\d+),.*\n", "$1");
+
+        assertEquals(id + " Pfizer 2024-06-03 carol\n", patient.run("show_appointments"));
+        assertEquals(id + " Pfizer 2024-06-03 pat\n", caregiver.run("show_appointments"));
+        assertEquals("Pfizer 4\n", caregiver.run("get_vaccine_information Pfizer"));
+
+        assertEquals("Appointment ID " + id + " has been successfully canceled\n", patient.run("cancel " + id));
+        assertEquals("No appointments scheduled\n", patient.run("show_appointments"));
+        assertEquals("Pfizer 5\n", caregiver.run("get_vaccine_information Pfizer"));
+        assertEquals("Availability index is consistent\n", caregiver.run("verify_availability"));
+    }
+
+    @Test
+    void caregiverBooksAGroupAtOnce() {
+        TestDatabase.Terminal caregiver = new TestDatabase.Terminal();
+        caregiver.run("create_caregiver dave Secret#123", "login_caregiver dave Secret#123",
+                "upload_availability 2024-06-10", "add_doses Moderna 5");
+        TestDatabase.Terminal patients = new TestDatabase.Terminal();
+        patients.run("create_patient ann Secret#123", "create_patient bob Secret#123");
+
+        String booked = caregiver.run("reserve_batch ann,2024-06-10,Moderna nobody,2024-06-10,Moderna "
+                + "bob,2024-06-10,Moderna ann,2024-06-11,Moderna");
+        String[] lines = booked.split("\n");
+        assertEquals(4, lines.length, booked);
+        assertTrue(lines[0].matches("1: ann Appointment ID \\d+, Caregiver username dave, Time 09:00"), booked);
+        assertEquals("2: nobody Patient does not exist", lines[1]);
+        assertTrue(lines[2].matches("3: bob Appointment ID \\d+, Caregiver username dave, Time 09:15"), booked);
+        assertEquals("4: ann No caregiver is available", lines[3]);
+        assertEquals("Moderna 3\n", caregiver.run("get_vaccine_information Moderna"));
+        assertEquals("Availability index is consistent\n", caregiver.run("verify_availability"));
+    }
+
+    @Test
+    void largeGroupsAreCheckedForUnknownPatients() throws Exception {
+        // 150 names take three lookups, the last one padded; every other name is a patient
+        String[] known = new String[75];
+        StringBuilder batch = new StringBuilder("reserve_batch");
+        for (int i = 0; i < 150; i++) {
+            String name = (i % 2 == 0 ? "member" : "stranger") + i;
+            if (i % 2 == 0) {
+                known[i / 2] = name;
+            }
+            batch.append(' ').append(name).append(",2024-06-20,Pfizer");
+        }
+        TestDatabase.patients(known);
+        TestDatabase.Terminal caregiver = new TestDatabase.Terminal();
+        caregiver.run("create_caregiver erin Secret#123", "login_caregiver erin Secret#123");
+
+        String[] lines = caregiver.run(batch.toString()).split("\n");
+        assertEquals(150, lines.length);
+        for (int i = 0; i < 150; i++) {
+            if (i % 2 == 0) {
+                assertEquals((i + 1) + ": member" + i + " No caregiver is available", lines[i]);
+            } else {
+                assertEquals((i + 1) + ": stranger" + i + " Patient does not exist", lines[i]);
+            }
+        }
+    }
+
+    @Test
+    void commandsNeedTheRightLogin() {
+        TestDatabase.Terminal anonymous = new TestDatabase.Terminal();
+        assertEquals("Please login first\n", anonymous.run("reserve 2024-06-03 Pfizer"));
+        assertEquals("Please login first\n", anonymous.run("show_appointments"));
+        assertEquals("Please login as a caregiver first!\n", anonymous.run("upload_availability 2024-06-03"));
+        assertEquals("Invalid operation name!\n", anonymous.run("book 2024-06-03"));
+    }
+}
@@ -0,0 +1,142 @@
+package scheduler;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import scheduler.availability.AvailabilityIndex;
+import scheduler.db.ConnectionManager;
+import scheduler.db.Dialect;
+import scheduler.db.IdAllocator;
+import scheduler.db.ShardRouter;
+import scheduler.model.HoldExpiry;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Bookings, holds and listings across month boundaries with the date-keyed tables spread over
+ * three shards. The build runs this class on its own with Shards=3, where June, July and August
+ * 2024 go to shards 2, 0 and 1.
+ */
+class ShardedSchedulerTest {
+    // a day in each of June, July and August
+    private static final String[] DAYS = {"2024-06-28", "2024-07-01", "2024-08-01"};
+
+    private static TestDatabase.Terminal caregiver;
+
+    @BeforeAll
+    static void createDatabase() throws Exception {
+        assumeTrue(ShardRouter.count() == 3, "run with Shards=3");
+        assumeTrue(Dialect.getInstance().connectionUrl(2) != null, "every shard needs a database");
+        TestDatabase.create();
+        caregiver = new TestDatabase.Terminal();
+        assertEquals("Created user sam\n", caregiver.run("create_caregiver sam Secret#123"));
+        assertEquals("Logged in as: sam\n", caregiver.run("login_caregiver sam Secret#123"));
+        assertEquals("Availability uploaded for 36 dates!\n",
+                caregiver.run("upload_availability_range 2024-06-28 2024-08-02"));
+        caregiver.run("add_doses Pfizer 10", "add_doses Moderna 10");
+    }
+
+    @Test
+    void bookingsAcrossMonthsLandOnTheirOwnShards() throws Exception {
+        TestDatabase.Terminal patient = patient("pat");
+        Set<Integer> shards = new HashSet<>();
+        int[] ids = new int[DAYS.length];
+        for (int m = 0; m < DAYS.length; m++) {
+            Date date = Date.valueOf(DAYS[m]);
+            String reserved = patient.run("reserve " + date + " Pfizer");
+            assertTrue(reserved.matches("Appointment ID \\d+, Caregiver username sam, Time 09:00\n"), reserved);
+            ids[m] = Integer.parseInt(reserved.replaceAll("Appointment ID (\\d+),.*\n", "$1"));
+            int shard = ShardRouter.shardOf(date);
+            shards.add(shard);
+            for (int other = 0; other < ShardRouter.count(); other++) {
+                assertEquals(other == shard ? 1 : 0, TestDatabase.count(other, "SELECT COUNT(*) FROM Appointments WHERE AppointmentID = ?", ids[m]));
+            }
+        }
+        assertEquals(Set.of(0, 1, 2), shards);
+        assertEquals("Pfizer 7\n", caregiver.run("get_vaccine_information Pfizer"));
+
+        // one listing over every shard, in ID order, paged across them
+        assertEquals(ids[0] + " Pfizer 2024-06-28 sam\n" + ids[1] + " Pfizer 2024-07-01 sam\n"
+                + ids[2] + " Pfizer 2024-08-01 sam\n", patient.run("show_appointments"));
+        assertEquals(ids[0] + " Pfizer 2024-06-28 sam\n" + ids[1] + " Pfizer 2024-07-01 sam\n"
+                + "More: show_appointments " + ids[1] + " 2\n", patient.run("show_appointments 0 2"));
+        assertEquals(ids[2] + " Pfizer 2024-08-01 sam\n", patient.run("show_appointments " + ids[1] + " 2"));
+
+        // cancelling on a shard other than the Vaccines table's still puts the dose back there
+        assertEquals("Appointment ID " + ids[0] + " has been successfully canceled\n", patient.run("cancel " + ids[0]));
+        assertEquals("Pfizer 8\n", caregiver.run("get_vaccine_information Pfizer"));
+
+        // the index, whether kept up to date or read back from every shard, agrees with the tables
+        assertEquals("Availability index is consistent\n", caregiver.run("verify_availability"));
+        AvailabilityIndex.getInstance().load();
+        assertEquals("Availability index is consistent\n", caregiver.run("verify_availability"));
+        for (String day : new String[]{"2024-06-30", "2024-07-15", "2024-08-02"}) {
+            assertTrue(AvailabilityIndex.getInstance().available(Date.valueOf(day)).contains("sam"), day);
+        }
+    }
+
+    @Test
+    void holdsAreFoundAndReleasedOnTheirOwnShards() throws Exception {
+        TestDatabase.Terminal patient = patient("hana");
+        String held = patient.run("hold 2024-08-01 Moderna");
+        assertTrue(held.startsWith("Hold ID "), held);
+        String holdId = held.replaceAll("Hold ID (\\d+),.*\n", "$1");
+        String confirmed = patient.run("confirm " + holdId);
+        assertTrue(confirmed.matches("Appointment ID \\d+, Caregiver username sam, Time \\d\\d:\\d\\d\n"), confirmed);
+
+        // two more holds in the other months, which then run out
+        for (String day : new String[]{"2024-06-29", "2024-07-02"}) {
+            String hold = patient.run("hold " + day + " Moderna");
+            assertTrue(hold.startsWith("Hold ID "), hold);
+            int id = Integer.parseInt(hold.replaceAll("Hold ID (\\d+),.*\n", "$1"));
+            ConnectionManager.runInTransaction(Date.valueOf(day), cm -> {
+                PreparedStatement statement = cm.prepareStatement("UPDATE Holds SET Expires = 0 WHERE HoldID = ?");
+                statement.setInt(1, id);
+                return statement.executeUpdate();
+            });
+        }
+        assertEquals("Moderna 7\n", caregiver.run("get_vaccine_information Moderna"));
+        HoldExpiry.getInstance().load();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (TestDatabase.count("SELECT COUNT(*) FROM Holds") > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, TestDatabase.count("SELECT COUNT(*) FROM Holds"));
+        while (!caregiver.run("get_vaccine_information Moderna").equals("Moderna 9\n")
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals("Moderna 9\n", caregiver.run("get_vaccine_information Moderna"));
+        assertEquals("Availability index is consistent\n", caregiver.run("verify_availability"));
+    }
+
+    @Test
+    void newSequencesStartAfterTheHighestIdOnAnyShard() throws Exception {
+        // a row on June's shard, not the one the Sequences table is on
+        Date date = Date.valueOf("2024-06-15");
+        assertTrue(ShardRouter.shardOf(date) != 0);
+        ConnectionManager.runInTransaction(date, cm -> {
+            PreparedStatement statement = cm.prepareStatement(
+                    "INSERT INTO Appointments(AppointmentID, PatientName, CaregiverName, VaccineName, Date, Time) "
+                            + "VALUES (50000, NULL, NULL, NULL, ?, '09:00')");
+            statement.setDate(1, date);
+            return statement.executeUpdate();
+        });
+        IdAllocator allocator = new IdAllocator("Sharded", "Appointments", "AppointmentID", 10);
+        assertEquals(50001, allocator.nextId());
+    }
+
+    private static TestDatabase.Terminal patient(String name) {
+        TestDatabase.Terminal patient = new TestDatabase.Terminal();
+        assertEquals("Created user " + name + "\n", patient.run("create_patient " + name + " Secret#123"));
+        assertEquals("Logged in as " + name + "\n", patient.run("login_patient " + name + " Secret#123"));
+        return patient;
+    }
+}
@@ -0,0 +1,88 @@
+package scheduler;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import scheduler.db.ConnectionManager;
+import scheduler.model.Vaccine;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * show_appointments over 1200 appointments of one patient, IDs 1 to 1200: the first 600 in June
+ * and the rest in July.
+ */
+class ShowAppointmentsTest {
+    private static final int APPOINTMENTS = 1200;
+
+    private static TestDatabase.Terminal patient;
+
+    @BeforeAll
+    static void createDatabase() throws Exception {
+        TestDatabase.create();
+        patient = new TestDatabase.Terminal();
+        assertEquals("Created user pia\n", patient.run("create_patient pia Secret#123"));
+        assertEquals("Logged in as pia\n", patient.run("login_patient pia Secret#123"));
+        TestDatabase.caregivers("carl");
+        new Vaccine.VaccineBuilder("Pfizer", 0).build().saveToDB();
+        ConnectionManager.runInTransaction(cm -> {
+            PreparedStatement insertStmt = cm.prepareStatement(
+                    "INSERT INTO Appointments(AppointmentID, PatientName, CaregiverName, VaccineName, Date, Time) "
+                            + "VALUES (?, 'pia', 'carl', 'Pfizer', ?, '09:00')");
+            for (int id = 1; id <= APPOINTMENTS; id++) {
+                LocalDate month = id <= APPOINTMENTS / 2 ? LocalDate.of(2024, 6, 1) : LocalDate.of(2024, 7, 1);
+                insertStmt.setInt(1, id);
+                insertStmt.setDate(2, Date.valueOf(month.plusDays(id % 30)));
+                insertStmt.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    @Test
+    void pagesFollowOnFromTheLastId() {
+        String[] first = patient.run("show_appointments 0 500").split("\n");
+        assertEquals(501, first.length);
+        assertTrue(first[0].startsWith("1 Pfizer "), first[0]);
+        assertTrue(first[499].startsWith("500 Pfizer "), first[499]);
+        assertEquals("More: show_appointments 500 500", first[500]);
+
+        patient.run("show_appointments 500 500");
+        String[] last = patient.run("show_appointments 1000 500").split("\n");
+        assertEquals(200, last.length);
+        assertTrue(last[0].startsWith("1001 Pfizer "), last[0]);
+        assertTrue(last[199].startsWith("1200 Pfizer "), last[199]);
+    }
+
+    @Test
+    void onlyAppointmentsInTheDateRangeAreShown() {
+        String[] july = patient.run("show_appointments 0 100 2024-07-01 2024-07-31").split("\n");
+        assertEquals(101, july.length);
+        assertTrue(july[0].startsWith("601 Pfizer 2024-07-"), july[0]);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(july[i].contains(" 2024-07-"), july[i]);
+        }
+        assertEquals("More: show_appointments 700 100 2024-07-01 2024-07-31", july[100]);
+
+        assertEquals("No appointments scheduled\n", patient.run("show_appointments 0 100 2024-08-01 2024-08-31"));
+    }
+
+    @Test
+    void largeLimitsAreCutToTheMaximumPageSize() {
+        // MaxAppointmentPageSize is 1000 by default
+        String[] page = patient.run("show_appointments 0 2147483647").split("\n");
+        assertEquals(1001, page.length);
+        assertTrue(page[999].startsWith("1000 Pfizer "), page[999]);
+        assertEquals("More: show_appointments 1000 1000", page[1000]);
+    }
+
+    @Test
+    void limitsBelowOneAreRefused() {
+        assertEquals("Please try again\n", patient.run("show_appointments 0 0"));
+        assertEquals("Please try again\n", patient.run("show_appointments 0 -5"));
+    }
+}
@@ -0,0 +1,188 @@
+package scheduler;
+
+import scheduler.db.ConnectionManager;
+import scheduler.db.Dialect;
+import scheduler.db.SchemaMigrator;
+import scheduler.db.ShardRouter;
+import scheduler.model.Caregiver;
+import scheduler.model.Vaccine;
+import scheduler.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Creates the empty database the tests run against at DBPath (set by the build), one file per
+ * shard, from create.sql and then migrates it like the program does on startup. With
+ * DBDialect=postgresql the tables are created on the server at DBUrl from aurora-create.sql
+ * instead, after dropping everything in its public schema. Every test class runs in a JVM of its
+ * own, so this has to happen before the class first touches the database.
+ */
+public final class TestDatabase {
+
+    private TestDatabase() {
+    }
+
+    public static void create() throws IOException, SQLException {
+        if (!Dialect.getInstance().getName().equals("sqlite")) {
+            createOnServer();
+            return;
+        }
+        String path = System.getenv("DBPath");
+        if (path == null) {
+            throw new IllegalStateException("DBPath is not set; run the tests through the build");
+        }
+        String schema;
+        try (InputStream in = TestDatabase.class.getResourceAsStream("/sqlite/create.sql")) {
+            schema = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        for (int shard = 0; shard < ShardRouter.count(); shard++) {
+            Path file = Paths.get(shard == 0 ? path : path + "." + shard);
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            for (String suffix : new String[]{"", "-wal", "-shm", "-journal"}) {
+                Files.deleteIfExists(Paths.get(file + suffix));
+            }
+            try (Connection con = DriverManager.getConnection("jdbc:sqlite:" + file);
+                 Statement statement = con.createStatement()) {
+                for (String sql : schema.split(";")) {
+                    if (!sql.replaceAll("--[^\n]*", "").isBlank()) {
+                        statement.executeUpdate(sql);
+                    }
+                }
+            }
+        }
+        SchemaMigrator.migrate();
+    }
+
+    // With DBDialect=postgresql: empties the schema of every shard's database at DBUrl (DBUrlN)
+    // and creates the tables from aurora-create.sql
+    private static void createOnServer() throws IOException, SQLException {
+        String schema;
+        try (InputStream in = TestDatabase.class.getResourceAsStream("/aurora/aurora-create.sql")) {
+            schema = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        for (int shard = 0; shard < ShardRouter.count(); shard++) {
+            String url = Dialect.getInstance().connectionUrl(shard);
+            if (url == null) {
+                throw new IllegalStateException("DBUrl is not set for shard " + shard);
+            }
+            try (Connection con = DriverManager.getConnection(url);
+                 Statement statement = con.createStatement()) {
+                statement.executeUpdate("DROP SCHEMA public CASCADE");
+                statement.executeUpdate("CREATE SCHEMA public");
+                for (String sql : schema.replaceAll("--[^\n]*", "").split(";")) {
+                    if (!sql.isBlank()) {
+                        statement.executeUpdate(sql);
+                    }
+                }
+            }
+        }
+        SchemaMigrator.migrate();
+    }
+
+    // Adds patients without a password, for rows that refer to them; they cannot log in
+    public static void patients(String... names) throws SQLException {
+        insertNames("INSERT INTO Patients(Username) VALUES (?)", names);
+    }
+
+    // Adds caregivers without a password, for rows that refer to them; they cannot log in
+    public static void caregivers(String... names) throws SQLException {
+        insertNames("INSERT INTO Caregivers(Username) VALUES (?)", names);
+    }
+
+    private static void insertNames(String sql, String[] names) throws SQLException {
+        ConnectionManager.runInTransaction(cm -> {
+            PreparedStatement statement = cm.prepareStatement(sql);
+            for (String name : names) {
+                statement.setString(1, name);
+                statement.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    // Adds a caregiver who can log in with the password Secret#123
+    public static Caregiver caregiver(String name) throws SQLException {
+        byte[] salt = Util.generateSalt();
+        Caregiver caregiver = new Caregiver.CaregiverBuilder(name, salt, Util.generateHash("Secret#123", salt)).build();
+        caregiver.saveToDB();
+        return caregiver;
+    }
+
+    // Writes the caregivers' availability rows for the date straight to its shard, leaving the
+    // in-memory index to a later AvailabilityIndex.load()
+    public static void availability(Date date, long slots, long booked, String... caregivers) throws SQLException {
+        ConnectionManager.runInTransaction(date, cm -> {
+            PreparedStatement statement = cm.prepareStatement(
+                    "INSERT INTO Availabilities(Time, Username, Slots, Booked) VALUES (?, ?, ?, ?)");
+            for (String caregiver : caregivers) {
+                statement.setDate(1, date);
+                statement.setString(2, caregiver);
+                statement.setLong(3, slots);
+                statement.setLong(4, booked);
+                statement.executeUpdate();
+            }
+            return null;
+        });
+    }
+
+    // The doses left: those in the table and those in the local allotment
+    public static int doses(String vaccine) throws SQLException {
+        return new Vaccine.VaccineGetter(vaccine).get().getAvailableDoses();
+    }
+
+    // Runs a query for one number on every shard and adds up the answers; a shard that returns
+    // no row counts as 0
+    public static int count(String sql, Object... parameters) throws SQLException {
+        int total = 0;
+        for (int shard : ShardRouter.forEachShard(shard -> count(shard, sql, parameters))) {
+            total += shard;
+        }
+        return total;
+    }
+
+    // Like count(sql, parameters), on the one shard
+    public static int count(int shard, String sql, Object... parameters) throws SQLException {
+        ConnectionManager cm = new ConnectionManager(shard);
+        cm.createReadConnection();
+        try {
+            PreparedStatement statement = cm.prepareStatement(sql);
+            for (int i = 0; i < parameters.length; i++) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } finally {
+            cm.closeConnection();
+        }
+    }
+
+    // A session whose output is kept, for running commands like a user would
+    public static final class Terminal {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        public final Session session = new Session(new PrintStream(buffer, true, StandardCharsets.UTF_8));
+
+        // Runs the command lines and returns everything they printed
+        public synchronized String run(String... lines) {
+            buffer.reset();
+            for (String line : lines) {
+                Scheduler.execute(session, line);
+            }
+            return buffer.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package scheduler.availability;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AssignmentStrategyTest {
+
+    @Test
+    void leastBookedComesFirstAndTiesGoByUsername() {
+        Date date = Date.valueOf("2024-10-01");
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        for (String caregiver : new String[]{"amy", "bob", "cal"}) {
+            index.add(date, caregiver, Slots.ALL);
+        }
+        AssignmentStrategy strategy = new AssignmentStrategy.LeastBooked();
+        strategy.booked(date, "amy");
+        strategy.booked(date, "amy");
+        strategy.booked(Date.valueOf("2024-10-03"), "cal");
+
+        assertEquals(List.of("bob", "cal", "amy"), list(strategy.candidates(date)));
+    }
+
+    @Test
+    void leastBookedSortsWhileCountsChange() throws Exception {
+        Date date = Date.valueOf("2024-11-05");
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        List<String> caregivers = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            caregivers.add(String.format("busy%03d", i));
+            index.add(date, caregivers.get(i), Slots.ALL);
+        }
+        AssignmentStrategy strategy = new AssignmentStrategy.LeastBooked();
+
+        // other reservations keep booking and releasing while candidates are sorted
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread writer = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    String caregiver = caregivers.get(random.nextInt(caregivers.size()));
+                    if (random.nextBoolean()) {
+                        strategy.booked(date, caregiver);
+                    } else {
+                        strategy.released(date, caregiver);
+                    }
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        try {
+            for (int i = 0; i < 2000; i++) {
+                assertEquals(caregivers.size(), list(strategy.candidates(date)).size());
+            }
+        } finally {
+            running.set(false);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        }
+    }
+
+    private static List<String> list(Iterator<String> candidates) {
+        List<String> list = new ArrayList<>();
+        candidates.forEachRemaining(list::add);
+        return list;
+    }
+}
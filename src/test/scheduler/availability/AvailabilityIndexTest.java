@@ -0,0 +1,90 @@
+package scheduler.availability;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import scheduler.TestDatabase;
+import scheduler.model.Caregiver;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AvailabilityIndexTest {
+
+    @BeforeAll
+    static void createDatabase() throws Exception {
+        TestDatabase.create();
+    }
+
+    @Test
+    void readersNeverSeeAHalfLoadedIndex() throws Exception {
+        Date date = Date.valueOf("2024-08-01");
+        for (int i = 0; i < 50; i++) {
+            TestDatabase.caregiver("reload" + i).uploadAvailability(date, Slots.ALL);
+        }
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+        index.load();
+
+        AtomicBoolean loading = new AtomicBoolean(true);
+        AtomicInteger emptyReads = new AtomicInteger();
+        AtomicInteger reads = new AtomicInteger();
+        Thread reader = new Thread(() -> {
+            while (loading.get()) {
+                if (index.available(date).size() != 50) {
+                    emptyReads.incrementAndGet();
+                }
+                reads.incrementAndGet();
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 200; i++) {
+            index.load();
+        }
+        loading.set(false);
+        reader.join();
+
+        assertTrue(reads.get() > 0);
+        assertEquals(0, emptyReads.get(), "reads that saw the index partly loaded");
+        assertEquals(0, index.verify().size());
+    }
+
+    @Test
+    void changesCommittedDuringAReloadAreKept() throws Exception {
+        // enough rows that reading the table takes a while
+        LocalDate first = LocalDate.of(2025, 1, 1);
+        String[] busy = new String[100];
+        for (int c = 0; c < busy.length; c++) {
+            busy[c] = "busy" + c;
+        }
+        TestDatabase.caregivers(busy);
+        for (int d = 0; d < 30; d++) {
+            TestDatabase.availability(Date.valueOf(first.plusDays(d)), Slots.ALL, 0, busy);
+        }
+        Caregiver late = TestDatabase.caregiver("late");
+        AvailabilityIndex index = AvailabilityIndex.getInstance();
+
+        // each round a reload races an upload to a new date; whichever order they end up in,
+        // the upload has to be in the index afterwards
+        ExecutorService loader = Executors.newSingleThreadExecutor();
+        try {
+            for (int round = 0; round < 100; round++) {
+                Future<?> loading = loader.submit(() -> {
+                    index.load();
+                    return null;
+                });
+                late.uploadAvailability(Date.valueOf(first.plusYears(1).plusDays(round)), Slots.ALL);
+                loading.get();
+                assertEquals(0, index.verify().size(), "round " + round + ": " + index.verify());
+            }
+        } finally {
+            loader.shutdown();
+        }
+    }
+}
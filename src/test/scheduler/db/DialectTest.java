@@ -0,0 +1,86 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * What each dialect hands the rest of the scheduler, whichever one the build runs against. The
+ * statements themselves are run against PostgreSQL by the whole suite with DBDialect=postgresql
+ * and DBUrl set (see the README).
+ */
+class DialectTest {
+    private final Dialect sqlite = Dialect.forName("sqlite");
+    private final Dialect postgres = Dialect.forName("postgresql");
+
+    @Test
+    void namesSelectTheDialect() {
+        assertEquals("sqlite", Dialect.forName(null).getName());
+        assertEquals("sqlite", Dialect.forName("").getName());
+        assertEquals("postgresql", Dialect.forName("aurora").getName());
+        assertEquals("postgresql", Dialect.forName("Postgres").getName());
+        assertEquals("org.postgresql.Driver", postgres.driverName());
+        assertEquals("org.sqlite.JDBC", sqlite.driverName());
+    }
+
+    @Test
+    void postgresLocksRowsAndSkipsLockedOnes() {
+        assertEquals("FOR UPDATE SKIP LOCKED", postgres.skipLockedClause());
+        assertNull(sqlite.skipLockedClause());
+        assertFalse(postgres.singleFileWriter());
+        assertTrue(sqlite.singleFileWriter());
+    }
+
+    @Test
+    void schemaVersionsAreKeptWhereEachEngineKeepsThem() {
+        assertEquals("PRAGMA user_version = 5", sqlite.writeSchemaVersion(5));
+        assertEquals("UPDATE SchemaVersion SET Version = 5", postgres.writeSchemaVersion(5));
+        assertTrue(sqlite.appliesMigrations());
+        assertFalse(postgres.appliesMigrations());
+    }
+
+    @Test
+    void auroraCreateIsAtTheLatestVersion() throws Exception {
+        String schema;
+        try (InputStream in = DialectTest.class.getResourceAsStream("/aurora/aurora-create.sql")) {
+            schema = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        Matcher version = Pattern.compile("INSERT INTO SchemaVersion \\(Version\\) VALUES \\((\\d+)\\)").matcher(schema);
+        assertTrue(version.find());
+        assertEquals(SchemaMigrator.latestVersion(), Integer.parseInt(version.group(1)));
+    }
+
+    @Test
+    void onlyConflictsWithAnotherTransactionAreRetried() {
+        assertTrue(sqlite.isRetryable(new SQLException("[SQLITE_BUSY] The database file is locked", null, 5)));
+        assertTrue(sqlite.isRetryable(new SQLException("[SQLITE_LOCKED] A table in the database is locked", null, 6)));
+        assertFalse(sqlite.isRetryable(new SQLException("[SQLITE_CONSTRAINT] Abort due to constraint violation", null, 19)));
+
+        assertTrue(postgres.isRetryable(new SQLException("could not serialize access", "40001")));
+        assertTrue(postgres.isRetryable(new SQLException("deadlock detected", "40P01")));
+        assertFalse(postgres.isRetryable(new SQLException("duplicate key value", "23505")));
+    }
+
+    @Test
+    void plansThatScanOrSortAreCostly() {
+        assertEquals("EXPLAIN QUERY PLAN ", sqlite.explainPrefix());
+        assertTrue(sqlite.isCostly("SCAN Appointments"));
+        assertTrue(sqlite.isCostly("USE TEMP B-TREE FOR ORDER BY"));
+        assertFalse(sqlite.isCostly("SEARCH Appointments USING COVERING INDEX AppointmentsByPatient (PatientName=?)"));
+
+        assertEquals("EXPLAIN ", postgres.explainPrefix());
+        assertTrue(postgres.isCostly("Seq Scan on appointments  (cost=0.00..1.01 rows=1 width=298)"));
+        assertTrue(postgres.isCostly("->  Sort  (cost=0.01..0.02 rows=0 width=298)"));
+        assertFalse(postgres.isCostly("Sort Key: appointmentid"));
+        assertFalse(postgres.isCostly("->  Index Only Scan using appointmentsbypatient on appointments"));
+    }
+}
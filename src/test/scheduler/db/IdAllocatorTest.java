@@ -0,0 +1,88 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import scheduler.TestDatabase;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdAllocatorTest {
+
+    @BeforeAll
+    static void createDatabase() throws Exception {
+        TestDatabase.create();
+    }
+
+    @Test
+    void startsAfterTheExistingRows() throws Exception {
+        ConnectionManager.runInTransaction(cm -> cm.getConnection().createStatement().executeUpdate(
+                "INSERT INTO Appointments(AppointmentID, PatientName, CaregiverName, VaccineName, Date, Time) "
+                        + "VALUES (41, NULL, NULL, NULL, NULL, '09:00')"));
+        IdAllocator allocator = new IdAllocator("Appointments", "Appointments", "AppointmentID", 10);
+        assertEquals(42, allocator.nextId());
+        assertEquals(43, allocator.nextId());
+    }
+
+    @Test
+    void allocatorsSharingASequenceNeverHandOutTheSameId() throws Exception {
+        // two allocators on one sequence stand for two scheduler processes on one database
+        IdAllocator first = new IdAllocator("Shared", "Holds", "HoldID", 7);
+        IdAllocator second = new IdAllocator("Shared", "Holds", "HoldID", 7);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> done = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            IdAllocator allocator = t % 2 == 0 ? first : second;
+            done.add(pool.submit(() -> {
+                for (int i = 0; i < 250; i++) {
+                    assertTrue(ids.add(allocator.nextId()));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : done) {
+            future.get();
+        }
+        pool.shutdown();
+        assertEquals(2000, ids.size());
+    }
+
+    @Test
+    void blocksLeasedInARolledBackGroupAreNotReused() throws Exception {
+        IdAllocator script = new IdAllocator("Grouped", "Appointments", "AppointmentID", 5);
+        IdAllocator other = new IdAllocator("Grouped", "Appointments", "AppointmentID", 5);
+
+        // a script group leases a block on its pinned connection and is then rolled back
+        Connection con = ConnectionManager.pinConnection(0);
+        long leased;
+        try {
+            con.setAutoCommit(false);
+            leased = script.nextId();
+            con.rollback();
+            IdAllocator.invalidateAll();
+        } finally {
+            ConnectionManager.unpinConnection(0);
+        }
+
+        // another process now leases the block the rollback returned to the sequence
+        Set<Long> others = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 5; i++) {
+            others.add(other.nextId());
+        }
+        assertTrue(others.contains(leased));
+        for (int i = 0; i < 5; i++) {
+            assertFalse(others.contains(script.nextId()));
+        }
+    }
+}
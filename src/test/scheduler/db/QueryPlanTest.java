@@ -0,0 +1,40 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import scheduler.TestDatabase;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Fails the build when a schema or query change leaves one of the hot queries scanning a whole
+ * table or sorting, instead of waiting for the startup warning to be noticed.
+ */
+class QueryPlanTest {
+
+    @BeforeAll
+    static void createDatabase() throws Exception {
+        // PostgreSQL plans the empty tables of a fresh test database with sorts and scans however
+        // they are indexed, so only SQLite's plans say anything here; DialectTest covers both
+        // dialects' reading of a plan
+        assumeTrue(Dialect.getInstance().getName().equals("sqlite"), "plans are checked on SQLite");
+        TestDatabase.create();
+    }
+
+    @Test
+    void hotQueriesUseIndexes() throws Exception {
+        List<String> problems = SchemaMigrator.checkQueryPlans();
+        assertEquals(List.of(), problems, "hot queries with a costly plan");
+    }
+
+    @Test
+    void fullScansAreReported() {
+        Dialect dialect = Dialect.getInstance();
+        assertTrue(dialect.isCostly("SCAN Appointments"));
+        assertTrue(dialect.isCostly("USE TEMP B-TREE FOR ORDER BY"));
+    }
+}
@@ -0,0 +1,61 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import scheduler.TestDatabase;
+import scheduler.availability.Slots;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SchemaMigratorTest {
+
+    @BeforeAll
+    static void createDatabase() throws Exception {
+        TestDatabase.create();
+    }
+
+    @Test
+    void migratingAgainChangesNothing() throws Exception {
+        assertEquals(SchemaMigrator.latestVersion(), SchemaMigrator.migrate());
+        assertEquals(SchemaMigrator.latestVersion(), SchemaMigrator.currentVersion());
+    }
+
+    @Test
+    void refusesADatabaseWithAnotherSlotLayout() throws Exception {
+        setSetting("SlotsPerDay", Slots.PER_DAY + 1);
+        try {
+            SQLException e = assertThrows(SQLException.class, SchemaMigrator::migrate);
+            assertTrue(e.getMessage().contains((Slots.PER_DAY + 1) + " slots of " + Slots.MINUTES + " minutes"),
+                    e.getMessage());
+        } finally {
+            setSetting("SlotsPerDay", Slots.PER_DAY);
+        }
+        SchemaMigrator.migrate();
+    }
+
+    @Test
+    void refusesADatabaseSpreadOverAnotherNumberOfShards() throws Exception {
+        setSetting("Shards", ShardRouter.count() + 1);
+        try {
+            SQLException e = assertThrows(SQLException.class, SchemaMigrator::migrate);
+            assertTrue(e.getMessage().contains("spread over " + (ShardRouter.count() + 1) + " shards"), e.getMessage());
+        } finally {
+            setSetting("Shards", ShardRouter.count());
+        }
+        SchemaMigrator.migrate();
+    }
+
+    private static void setSetting(String name, int value) throws SQLException {
+        ConnectionManager.runInTransaction(cm -> {
+            PreparedStatement statement = cm.prepareStatement("UPDATE Settings SET Value = ? WHERE Name = ?");
+            statement.setString(1, Integer.toString(value));
+            statement.setString(2, name);
+            return statement.executeUpdate();
+        });
+    }
+}
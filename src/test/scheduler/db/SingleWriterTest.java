@@ -0,0 +1,96 @@
+package scheduler.db;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import scheduler.TestDatabase;
+import scheduler.metrics.Metrics;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SingleWriterTest {
+    private static final int MEMBERS = 8;
+    // the member whose transaction fails halfway through
+    private static final int FAILING = 3;
+
+    @BeforeAll
+    static void createDatabase() throws Exception {
+        TestDatabase.create();
+    }
+
+    @Test
+    void aFailedMemberOnlyRollsBackItsOwnSavepoint() throws Exception {
+        // a writer of its own on shard 0, which the tests' default storage profile leaves without one
+        SingleWriter writer = new SingleWriter(0, MEMBERS);
+        ExecutorService pool = Executors.newFixedThreadPool(MEMBERS + 1);
+        try {
+            // the first group holds the writer until every member has queued up behind it, so
+            // that the members are all committed in the next group
+            CountDownLatch holding = new CountDownLatch(1);
+            Future<?> gate = pool.submit(() -> writer.submit(cm -> {
+                holding.countDown();
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (!writerStats().contains("queued=" + MEMBERS) && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(5);
+                }
+                return null;
+            }));
+            holding.await();
+
+            List<Future<Integer>> members = new ArrayList<>();
+            for (int m = 0; m < MEMBERS; m++) {
+                int member = m;
+                members.add(pool.submit(() -> writer.submit(cm -> {
+                    PreparedStatement insertStmt = cm.prepareStatement("INSERT INTO Vaccines(Name, Doses) VALUES (?, ?)");
+                    insertStmt.setString(1, "member" + member);
+                    insertStmt.setInt(2, member);
+                    insertStmt.executeUpdate();
+                    if (member == FAILING) {
+                        // its own row again: the primary key refuses it
+                        insertStmt.executeUpdate();
+                    }
+                    return member;
+                })));
+            }
+            gate.get();
+            for (int m = 0; m < MEMBERS; m++) {
+                if (m == FAILING) {
+                    Future<Integer> failed = members.get(m);
+                    ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+                    assertInstanceOf(SQLException.class, e.getCause());
+                } else {
+                    assertEquals(m, members.get(m).get());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        assertTrue(writerStats().contains("groups=2, transactions=" + (MEMBERS + 1)), writerStats());
+        for (int m = 0; m < MEMBERS; m++) {
+            assertEquals(m == FAILING ? 0 : 1,
+                    TestDatabase.count("SELECT COUNT(*) FROM Vaccines WHERE Name = ?", "member" + m), "member" + m);
+        }
+    }
+
+    private static String writerStats() {
+        for (String line : Metrics.render().split("\n")) {
+            if (line.startsWith("writer ")) {
+                return line;
+            }
+        }
+        return "";
+    }
+}
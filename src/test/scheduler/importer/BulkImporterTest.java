@@ -0,0 +1,74 @@
+package scheduler.importer;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import scheduler.TestDatabase;
+import scheduler.model.Waitlist;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkImporterTest {
+
+    @BeforeAll
+    static void createDatabase() throws Exception {
+        TestDatabase.create();
+    }
+
+    @Test
+    void badRecordsAreReportedAndSkipped() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BulkImporter importer = new BulkImporter(2, new PrintStream(output, true, StandardCharsets.UTF_8));
+        importer.importFile(file("records.jsonl",
+                "{\"type\": \"caregiver\", \"username\": \"imp1\", \"password\": \"Secret#123\"}",
+                "{\"type\": \"availability\", \"caregiver\": \"imp1\", \"date\": \"June 3\"}",
+                "{\"type\": \"vaccine\", \"name\": \"Sputnik\", \"doses\": 3",
+                "{\"type\": \"nothing\"}",
+                "{\"type\": \"availability\", \"caregiver\": \"imp1\", \"date\": \"2024-09-02\"}"));
+
+        String report = output.toString(StandardCharsets.UTF_8);
+        assertTrue(report.contains("line 2: "), report);
+        assertTrue(report.contains("line 3: "), report);
+        assertTrue(report.contains("line 4: unknown type nothing"), report);
+        assertEquals(2, importer.getImported());
+        assertEquals(3, importer.getFailed());
+    }
+
+    @Test
+    void importedCapacityServesTheWaitlist() throws Exception {
+        Date date = Date.valueOf("2024-09-10");
+        BulkImporter importer = new BulkImporter(100, new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8));
+        importer.importFile(file("people.csv",
+                "patient,waiting,Secret#123",
+                "caregiver,imp2,Secret#123",
+                "vaccine,AstraZeneca,0"));
+        int entry = Waitlist.getInstance().join("waiting", date, "AstraZeneca", null);
+        assertTrue(entry > 0);
+
+        // neither a slot nor a dose existed when the patient joined; the import adds both
+        importer.importFile(file("capacity.csv",
+                "vaccine,AstraZeneca,5",
+                "availability,imp2,2024-09-10"));
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        List<String> status = Waitlist.getInstance().status("waiting");
+        while (!status.get(0).contains("booked") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            status = Waitlist.getInstance().status("waiting");
+        }
+        assertTrue(status.get(0).contains("booked"), status.toString());
+    }
+
+    private static Path file(String name, String... lines) throws Exception {
+        Path dir = Files.createDirectories(Path.of("target", "import-test"));
+        return Files.write(dir.resolve(name), List.of(lines), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,111 @@
+package scheduler.inventory;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import scheduler.TestDatabase;
+import scheduler.db.ConnectionManager;
+import scheduler.model.Vaccine;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The allotment against the Vaccines table, with the default DoseBlockSize of 20.
+ */
+class DoseInventoryTest {
+    private static final int BLOCK = 20;
+
+    private final DoseInventory inventory = DoseInventory.getInstance();
+
+    @BeforeAll
+    static void createDatabase() throws Exception {
+        TestDatabase.create();
+    }
+
+    @Test
+    void dosesGivenBackBeyondTwoBlocksGoBackToTheTable() throws Exception {
+        new Vaccine.VaccineBuilder("Flushed", 100).build().saveToDB();
+        for (int i = 0; i < 45; i++) {
+            assertTrue(inventory.take("Flushed"));
+        }
+        assertEquals(40, stored("Flushed"));
+
+        // cancellations free every dose again; no more than two blocks stay in the allotment
+        for (int i = 0; i < 45; i++) {
+            inventory.giveBack("Flushed");
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while ((inventory.allotted("Flushed") > 2 * BLOCK || stored("Flushed") + inventory.allotted("Flushed") != 100)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(inventory.allotted("Flushed") <= 2 * BLOCK);
+
+        inventory.flush();
+        assertEquals(BLOCK, inventory.allotted("Flushed"));
+        assertEquals(100 - BLOCK, stored("Flushed"));
+    }
+
+    @Test
+    void rollingBackAGroupKeepsWhatOtherThreadsTook() throws Exception {
+        new Vaccine.VaccineBuilder("Grouped", 100).build().saveToDB();
+
+        // a script group leases a block and takes one dose of it
+        Connection con = ConnectionManager.pinConnection(0);
+        try {
+            con.setAutoCommit(false);
+            inventory.beginGroup();
+            assertTrue(inventory.take("Grouped"));
+
+            // meanwhile reservations on other threads take five doses of the same block
+            Thread other = new Thread(() -> {
+                for (int i = 0; i < 5; i++) {
+                    try {
+                        assertTrue(inventory.take("Grouped"));
+                    } catch (SQLException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            other.start();
+            other.join();
+
+            con.rollback();
+            inventory.rollbackGroup();
+        } finally {
+            ConnectionManager.unpinConnection(0);
+        }
+
+        // the rollback put the whole block back in the table, but five doses were used
+        assertEquals(100, stored("Grouped"));
+        assertEquals(95, stored("Grouped") + inventory.allotted("Grouped"));
+        inventory.flush();
+        assertEquals(95, stored("Grouped"));
+        assertEquals(0, inventory.allotted("Grouped"));
+    }
+
+    @Test
+    void committingAGroupKeepsItsLease() throws Exception {
+        new Vaccine.VaccineBuilder("Committed", 100).build().saveToDB();
+        Connection con = ConnectionManager.pinConnection(0);
+        try {
+            con.setAutoCommit(false);
+            inventory.beginGroup();
+            assertTrue(inventory.take("Committed"));
+            con.commit();
+            inventory.commitGroup();
+        } finally {
+            ConnectionManager.unpinConnection(0);
+        }
+        assertEquals(100 - BLOCK, stored("Committed"));
+        assertEquals(BLOCK - 1, inventory.allotted("Committed"));
+    }
+
+    // the doses in the table, leaving out the local allotment
+    private static int stored(String vaccine) throws SQLException {
+        return TestDatabase.count("SELECT Doses FROM Vaccines WHERE Name = ?", vaccine);
+    }
+}
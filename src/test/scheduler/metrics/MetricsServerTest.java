@@ -0,0 +1,31 @@
+package scheduler.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsServerTest {
+
+    @Test
+    void listensOnLoopbackByDefault() throws Exception {
+        HttpServer server = MetricsServer.start(0);
+        try {
+            InetSocketAddress address = server.getAddress();
+            assertTrue(address.getAddress().isLoopbackAddress(), address.toString());
+
+            URL url = new URL("http", address.getAddress().getHostAddress(), address.getPort(), "/metrics");
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith("text/plain"));
+            connection.getInputStream().close();
+        } finally {
+            server.stop(0);
+        }
+    }
+}
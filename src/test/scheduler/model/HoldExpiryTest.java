@@ -0,0 +1,179 @@
+package scheduler.model;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import scheduler.TestDatabase;
+import scheduler.availability.AvailabilityIndex;
+import scheduler.availability.Slots;
+import scheduler.db.ConnectionManager;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A wave of 100K holds coming due at once while patients keep reserving: every slot and every
+ * dose is given back, the in-memory availability ends up agreeing with the table, and
+ * reservations keep going through while the wave is released.
+ */
+class HoldExpiryTest {
+    private static final int CAREGIVERS = 125;
+    private static final int DAYS = 25;
+    private static final int HOLDS = CAREGIVERS * DAYS * Slots.PER_DAY;
+    private static final LocalDate FIRST_DAY = LocalDate.of(2024, 9, 1);
+    // the days reservations are made on meanwhile, well away from the held ones
+    private static final LocalDate FIRST_OPEN_DAY = LocalDate.of(2024, 11, 1);
+    private static final int OPEN_DAYS = 30;
+    private static final int RESERVERS = 4;
+    // the patients the holds are spread over
+    private static final int PATIENTS = 1000;
+    // reservations per second that have to get through while the holds are released
+    private static final double MIN_RESERVATIONS_PER_SECOND = 10;
+
+    @BeforeAll
+    static void createDatabase() throws Exception {
+        TestDatabase.create();
+    }
+
+    @Test
+    void aHundredThousandExpiredHoldsAreReleasedWhileReservationsGoOn() throws Exception {
+        assertTrue(HOLDS >= 100_000);
+        new Vaccine.VaccineBuilder("Expiring", 0).build().saveToDB();
+        new Vaccine.VaccineBuilder("Reserving", CAREGIVERS * OPEN_DAYS * Slots.PER_DAY).build().saveToDB();
+        String[] caregivers = new String[CAREGIVERS];
+        for (int c = 0; c < CAREGIVERS; c++) {
+            caregivers[c] = caregiver(c);
+        }
+        TestDatabase.caregivers(caregivers);
+        String[] patients = new String[PATIENTS + RESERVERS];
+        for (int p = 0; p < PATIENTS; p++) {
+            patients[p] = "patient" + p;
+        }
+        for (int t = 0; t < RESERVERS; t++) {
+            patients[PATIENTS + t] = "reserver" + t;
+        }
+        TestDatabase.patients(patients);
+        // every slot of every caregiver's day is held, and every hold ran out a minute ago; each
+        // day's rows go to the day's shard
+        long expired = System.currentTimeMillis() - 60_000;
+        for (int d = 0; d < DAYS; d++) {
+            Date date = Date.valueOf(FIRST_DAY.plusDays(d));
+            int firstHoldId = d * CAREGIVERS * Slots.PER_DAY;
+            TestDatabase.availability(date, Slots.ALL, Slots.ALL, caregivers);
+            ConnectionManager.runInTransaction(date, cm -> {
+                PreparedStatement holdStmt = cm.prepareStatement(
+                        "INSERT INTO Holds(HoldID, PatientName, CaregiverName, VaccineName, Date, Time, Expires) "
+                                + "VALUES (?, ?, ?, ?, ?, ?, ?)");
+                int holdId = firstHoldId;
+                for (int c = 0; c < CAREGIVERS; c++) {
+                    for (int slot = 0; slot < Slots.PER_DAY; slot++) {
+                        holdStmt.setInt(1, ++holdId);
+                        holdStmt.setString(2, "patient" + holdId % PATIENTS);
+                        holdStmt.setString(3, caregiver(c));
+                        holdStmt.setString(4, "Expiring");
+                        holdStmt.setDate(5, date);
+                        holdStmt.setString(6, Slots.time(slot));
+                        holdStmt.setLong(7, expired);
+                        holdStmt.executeUpdate();
+                    }
+                }
+                return null;
+            });
+        }
+        // and every caregiver offers the whole of a few later days for reservations
+        for (int d = 0; d < OPEN_DAYS; d++) {
+            TestDatabase.availability(Date.valueOf(FIRST_OPEN_DAY.plusDays(d)), Slots.ALL, 0, caregivers);
+        }
+        AvailabilityIndex.getInstance().load();
+
+        AtomicBoolean releasing = new AtomicBoolean(true);
+        AtomicInteger busy = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(RESERVERS);
+        List<Future<Integer>> reservers = new ArrayList<>();
+        for (int t = 0; t < RESERVERS; t++) {
+            int thread = t;
+            reservers.add(pool.submit(() -> {
+                int reserved = 0;
+                while (releasing.get()) {
+                    Date date = Date.valueOf(FIRST_OPEN_DAY.plusDays((thread + reserved) % OPEN_DAYS));
+                    try {
+                        Appointment.reserve("reserver" + thread, date, "Reserving");
+                        reserved++;
+                    } catch (SQLException e) {
+                        // still busy after every retry: the session would be asked to try again
+                        busy.incrementAndGet();
+                    } catch (Appointment.UnavailableException e) {
+                        // every open slot is booked; the rate so far is what counts
+                        break;
+                    }
+                }
+                return reserved;
+            }));
+        }
+
+        // as on startup: the holds left in the table are all past due
+        long start = System.nanoTime();
+        HoldExpiry.getInstance().load();
+        long deadline = System.currentTimeMillis() + 300_000;
+        while (holdsLeft() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        releasing.set(false);
+        int reserved = 0;
+        for (Future<Integer> reserver : reservers) {
+            reserved += reserver.get();
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+
+        double throughput = reserved / seconds;
+        System.out.printf("Released %d holds in %.1f s while making %d reservations (%.0f per second, %d busy)%n",
+                HOLDS, seconds, reserved, throughput, busy.get());
+        assertTrue(throughput >= MIN_RESERVATIONS_PER_SECOND,
+                "only " + throughput + " reservations per second while holds were released");
+
+        // the last releases may still be updating the index and the allotment
+        while ((TestDatabase.doses("Expiring") != HOLDS || !AvailabilityIndex.getInstance().verify().isEmpty())
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, TestDatabase.count("SELECT COUNT(*) FROM Holds"));
+        assertEquals(reserved, TestDatabase.count("SELECT COUNT(*) FROM Appointments"));
+        assertEquals(HOLDS, TestDatabase.doses("Expiring"));
+        assertEquals(CAREGIVERS * OPEN_DAYS * Slots.PER_DAY - reserved, TestDatabase.doses("Reserving"));
+        assertEquals(0, AvailabilityIndex.getInstance().verify().size());
+        // the index agrees with the table, and every held slot is free again
+        for (int d = 0; d < DAYS; d++) {
+            for (int c = 0; c < CAREGIVERS; c++) {
+                assertEquals(Slots.ALL, AvailabilityIndex.getInstance().free(Date.valueOf(FIRST_DAY.plusDays(d)), caregiver(c)));
+            }
+        }
+    }
+
+    private static String caregiver(int c) {
+        return "caregiver" + c;
+    }
+
+    // the holds still in the table, or -1 if a release was committing just then; without WAL
+    // that locks readers out for a moment
+    private static int holdsLeft() {
+        try {
+            return TestDatabase.count("SELECT COUNT(*) FROM Holds");
+        } catch (SQLException e) {
+            return -1;
+        }
+    }
+}
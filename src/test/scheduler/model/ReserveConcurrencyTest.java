@@ -0,0 +1,106 @@
+package scheduler.model;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import scheduler.TestDatabase;
+import scheduler.availability.Slots;
+
+import java.sql.Date;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Many patients reserving at the same moment: every slot and every dose goes to at most one of
+ * them, and nobody who could have been booked is turned away.
+ */
+class ReserveConcurrencyTest {
+    private static final int THREADS = 32;
+
+    @BeforeAll
+    static void createDatabase() throws Exception {
+        TestDatabase.create();
+        String[] patients = new String[100];
+        for (int i = 0; i < patients.length; i++) {
+            patients[i] = "patient" + i;
+        }
+        TestDatabase.patients(patients);
+    }
+
+    @Test
+    void slotsAreNeverDoubleBooked() throws Exception {
+        // 3 caregivers offering 09:00 to 10:00, four slots each, and doses to spare
+        Date date = Date.valueOf("2024-07-01");
+        for (String name : new String[]{"ann", "ben", "cat"}) {
+            TestDatabase.caregiver(name).uploadAvailability(date, Slots.range(LocalTime.of(9, 0), LocalTime.of(10, 0)));
+        }
+        new Vaccine.VaccineBuilder("Moderna", 1000).build().saveToDB();
+
+        List<Appointment> booked = reserveAll(100, date, "Moderna");
+
+        assertEquals(12, booked.size());
+        Set<String> slots = new HashSet<>();
+        for (Appointment appointment : booked) {
+            assertTrue(slots.add(appointment.getCaregiverName() + " " + appointment.getTime()),
+                    "booked twice: " + appointment.getCaregiverName() + " " + appointment.getTime());
+        }
+        assertEquals(12, TestDatabase.count("SELECT COUNT(*) FROM Appointments WHERE Date = ?", date));
+        assertEquals(1000 - 12, TestDatabase.doses("Moderna"));
+    }
+
+    @Test
+    void dosesAreNeverOversold() throws Exception {
+        // every slot of 2 caregivers' day, but only 10 doses
+        Date date = Date.valueOf("2024-07-02");
+        for (String name : new String[]{"dan", "eve"}) {
+            TestDatabase.caregiver(name).uploadAvailability(date, Slots.ALL);
+        }
+        new Vaccine.VaccineBuilder("Novavax", 10).build().saveToDB();
+
+        List<Appointment> booked = reserveAll(50, date, "Novavax");
+
+        assertEquals(10, booked.size());
+        assertEquals(10, TestDatabase.count("SELECT COUNT(*) FROM Appointments WHERE Date = ?", date));
+        assertEquals(0, TestDatabase.doses("Novavax"));
+    }
+
+    // patients 0 to patients - 1 all try to reserve at once; returns the appointments made
+    private static List<Appointment> reserveAll(int patients, Date date, String vaccine) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Appointment>> results = new ArrayList<>();
+        for (int i = 0; i < patients; i++) {
+            String patient = "patient" + i;
+            results.add(pool.submit((Callable<Appointment>) () -> {
+                start.await();
+                try {
+                    return Appointment.reserve(patient, date, vaccine);
+                } catch (Appointment.UnavailableException e) {
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        List<Appointment> booked = new ArrayList<>();
+        for (Future<Appointment> result : results) {
+            Appointment appointment = result.get();
+            if (appointment != null) {
+                booked.add(appointment);
+            }
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+        return booked;
+    }
+}
@@ -0,0 +1,52 @@
+package scheduler.search;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import scheduler.TestDatabase;
+import scheduler.availability.Slots;
+import scheduler.model.Appointment;
+import scheduler.model.Vaccine;
+
+import java.sql.Date;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * The cached search results against the reservations that change them, with the default
+ * DoseBlockSize of 20.
+ */
+class ScheduleSearchTest {
+    private static final int RESERVATIONS = 25;
+
+    @BeforeAll
+    static void createDatabase() throws Exception {
+        TestDatabase.create();
+    }
+
+    @Test
+    void searchesRightAfterAReservationSeeIt() throws Exception {
+        Date date = Date.valueOf("2024-09-02");
+        TestDatabase.caregiver("sue").uploadAvailability(date, Slots.ALL);
+        new Vaccine.VaccineBuilder("Pfizer", 100).build().saveToDB();
+        String[] patients = new String[RESERVATIONS];
+        for (int i = 0; i < RESERVATIONS; i++) {
+            patients[i] = "patient" + i;
+        }
+        TestDatabase.patients(patients);
+
+        ScheduleSearch search = ScheduleSearch.getInstance();
+        assertEquals(100, search.vaccines().get("Pfizer"));
+        assertEquals(Slots.ALL, search.caregivers(date).get("sue"));
+        // nothing changed in between, so the second search is answered from the cache
+        assertSame(search.caregivers(date), search.caregivers(date));
+
+        // the first and the 21st reservation each lease a block of doses from the table
+        for (int i = 1; i <= RESERVATIONS; i++) {
+            Appointment.reserve(patients[i - 1], date, "Pfizer");
+            assertEquals(100 - i, search.vaccines().get("Pfizer"), "after reservation " + i);
+            assertEquals(Slots.PER_DAY - i, Slots.count(search.caregivers(date).get("sue")), "after reservation " + i);
+        }
+        assertEquals(100 - RESERVATIONS, TestDatabase.doses("Pfizer"));
+    }
+}
@@ -0,0 +1,123 @@
+package scheduler.server;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import scheduler.TestDatabase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Many clients against a server that serves only a few at a time: the others wait their turn
+ * instead of each getting a thread, and every one of them is served in the end.
+ */
+class SchedulerServerTest {
+    private static final int MAX_SESSIONS = 4;
+
+    private static ServerSocket listening;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        TestDatabase.create();
+        listening = new ServerSocket(0, 256, InetAddress.getLoopbackAddress());
+        SchedulerServer server = new SchedulerServer(0, MAX_SESSIONS, 256);
+        Thread thread = new Thread(() -> {
+            try {
+                server.run(listening);
+            } catch (IOException e) {
+                // closed by stopServer
+            }
+        }, "test-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @AfterAll
+    static void stopServer() throws IOException {
+        listening.close();
+    }
+
+    @Test
+    void sessionsBeyondTheLimitWaitForAFreeOne() throws Exception {
+        List<Socket> open = new ArrayList<>();
+        for (int i = 0; i < MAX_SESSIONS; i++) {
+            Socket socket = connect();
+            assertTrue(socket.getInputStream().read() >= 0, "session " + i + " was not served");
+            open.add(socket);
+        }
+
+        try (Socket waiting = connect()) {
+            waiting.setSoTimeout(500);
+            assertThrows(SocketTimeoutException.class, () -> waiting.getInputStream().read());
+
+            send(open.get(0), "quit\n");
+            drain(open.get(0).getInputStream());
+            open.get(0).close();
+            waiting.setSoTimeout(10_000);
+            assertTrue(waiting.getInputStream().read() >= 0, "the waiting session was not served");
+            send(waiting, "quit\n");
+        } finally {
+            for (Socket socket : open) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    void everyClientIsServedUnderLoad() throws Exception {
+        int clients = 100;
+        ExecutorService pool = Executors.newFixedThreadPool(32);
+        List<Future<String>> replies = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            String name = "load" + i;
+            replies.add(pool.submit(() -> {
+                try (Socket socket = connect()) {
+                    socket.setSoTimeout(60_000);
+                    send(socket, "create_patient " + name + " Secret#123\nquit\n");
+                    return drain(socket.getInputStream());
+                }
+            }));
+        }
+        int created = 0;
+        for (int i = 0; i < clients; i++) {
+            if (replies.get(i).get().contains("Created user load" + i + "\n")) {
+                created++;
+            }
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+        assertEquals(clients, created);
+    }
+
+    private static Socket connect() throws IOException {
+        return new Socket(InetAddress.getLoopbackAddress(), listening.getLocalPort());
+    }
+
+    private static void send(Socket socket, String lines) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(lines.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    // everything the server writes until it closes the connection
+    private static String drain(InputStream in) throws IOException {
+        return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+}